@@ -1,6 +1,9 @@
 package wsa.web;
 
 import java.net.URL;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 
 /** Un loader asincrono per pagine web */
@@ -13,6 +16,29 @@ public interface AsyncLoader {
      * @return Future per ottenere il risultato in modo asincrono */
     Future<LoadResult> submit(URL url);
 
+    /** Come {@link AsyncLoader#submit(URL)} ma ritorna un {@link CompletableFuture},
+     * così chi sottomette può registrare le azioni da eseguire appena il download è
+     * concluso invece di controllare periodicamente se il risultato è pronto.
+     * L'implementazione di default sottomette il download con submit e aspetta il
+     * risultato in un thread del pool comune di Java, le implementazioni possono
+     * ridefinirla per completare il future direttamente.
+     * @param url  un URL di una pagina web
+     * @throws IllegalStateException se il loader è chiuso
+     * @return CompletableFuture completato con il risultato del download */
+    default CompletableFuture<LoadResult> submitAsync(URL url) {
+        Future<LoadResult> future = submit(url);
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CompletionException(e);
+            } catch (ExecutionException e) {
+                throw new CompletionException(e.getCause());
+            }
+        });
+    }
+
     /** Chiude il loader e rilascia tutte le risorse. Dopo di ciò non può più
      * essere usato. */
     void shutdown();
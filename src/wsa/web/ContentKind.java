@@ -0,0 +1,12 @@
+package wsa.web;
+
+/** Il tipo di contenuto di un URI, stabilito prima di analizzarlo dall'estensione dell'URL o dagli
+ * header della risposta */
+public enum ContentKind {
+    /** Una pagina HTML, scaricata e analizzata */
+    HTML,
+    /** Un contenuto che non è HTML (immagini, PDF, archivi, ...), né scaricato né analizzato */
+    NON_HTML,
+    /** Una pagina più grande della dimensione massima, non scaricata */
+    OVERSIZED
+}
@@ -0,0 +1,375 @@
+package wsa.web;
+
+import java.util.Objects;
+import java.util.concurrent.Flow;
+
+/** Impostazioni usate dagli oggetti creati da {@link WebFactory}. I valori sono letti quando un
+ * Crawler, un AsyncLoader o un Loader viene creato, quindi una modifica vale per quelli creati
+ * dopo l'invocazione del relativo metodo set. */
+public class CrawlSettings {
+
+    private static volatile long bloomExpected = 0;
+    private static volatile double bloomFpp = 0;
+    private static volatile double hostRate = 0;
+    private static volatile int maxConnectionsPerHost = 0;
+    private static volatile int loaderThreads = 15;
+    private static volatile boolean virtualThreads = false;
+    private static volatile boolean linksOnly = false;
+    private static volatile int webEngines = 15;
+    private static volatile long loadTimeout = 30000;
+    private static volatile RenderProfile renderProfile = RenderProfile.DEFAULT;
+    private static volatile int enginePageLimit = 500;
+    private static volatile double engineHeapThreshold = 0.85;
+    private static volatile long cacheSize = 256L * 1024 * 1024;
+    private static volatile long cacheMaxAge = 60L * 60 * 1000;
+    private static volatile boolean prefilter = false;
+    private static volatile long maxPageSize = 10L * 1024 * 1024;
+    private static volatile FrontierScore frontierScore = FrontierScore.DEPTH;
+    private static volatile int frontierMemory = 100000;
+    private static volatile UriCanonicalizer canonicalizer = UriCanonicalizer.DEFAULT;
+    private static volatile int maxInFlight = 64;
+    private static volatile int resultBuffer = Flow.defaultBufferSize();
+    private static volatile long resultWait = 0;
+
+    private CrawlSettings() {}
+
+    /** Fa usare ai Crawler un filtro di Bloom di dimensione fissa per ricordare gli URI già
+     * sottomessi, invece di un insieme esatto. La memoria resta costante anche per esplorazioni
+     * molto grandi, ma con probabilità fpp un URI nuovo è scambiato per uno già visto e non viene
+     * scaricato. Con expected uguale a 0 si torna all'insieme esatto (default).
+     * @param expected  numero di URI previsto, 0 per l'insieme esatto
+     * @param fpp  probabilità di falsi positivi, tra 0 e 1 esclusi
+     * @throws IllegalArgumentException se i valori non sono validi */
+    public static void setBloomFilter(long expected, double fpp) {
+        if (expected < 0 || (expected > 0 && (fpp <= 0 || fpp >= 1)))
+            throw new IllegalArgumentException();
+        bloomExpected = expected;
+        bloomFpp = fpp;
+    }
+
+    /** @return il numero di URI previsto per il filtro di Bloom, 0 se si usa l'insieme esatto */
+    public static long getBloomExpected() {
+        return bloomExpected;
+    }
+
+    /** @return la probabilità di falsi positivi del filtro di Bloom */
+    public static double getBloomFpp() {
+        return bloomFpp;
+    }
+
+    /** Imposta quante richieste al secondo un AsyncLoader può fare verso lo stesso host.
+     * Il limite è applicato con un token bucket di capacità pari a un secondo di richieste.
+     * @param requestsPerSecond  richieste al secondo per host, 0 per nessun limite (default)
+     * @throws IllegalArgumentException se il valore è negativo */
+    public static void setHostRate(double requestsPerSecond) {
+        if (requestsPerSecond < 0)
+            throw new IllegalArgumentException();
+        hostRate = requestsPerSecond;
+    }
+
+    /** @return le richieste al secondo consentite per host, 0 se non c'è limite */
+    public static double getHostRate() {
+        return hostRate;
+    }
+
+    /** Imposta il numero massimo di download contemporanei verso lo stesso host.
+     * @param max  download contemporanei per host, 0 per nessun limite (default)
+     * @throws IllegalArgumentException se il valore è negativo */
+    public static void setMaxConnectionsPerHost(int max) {
+        if (max < 0)
+            throw new IllegalArgumentException();
+        maxConnectionsPerHost = max;
+    }
+
+    /** @return il numero massimo di download contemporanei per host, 0 se non c'è limite */
+    public static int getMaxConnectionsPerHost() {
+        return maxConnectionsPerHost;
+    }
+
+    /** Imposta quanti download può eseguire contemporaneamente un AsyncLoader. È la dimensione del
+     * pool di thread, o il numero di permessi del semaforo se si usano i virtual thread, e anche il
+     * numero massimo di Loader riusati.
+     * @param threads  download contemporanei, 15 di default
+     * @throws IllegalArgumentException se il valore non è positivo */
+    public static void setLoaderThreads(int threads) {
+        if (threads <= 0)
+            throw new IllegalArgumentException();
+        loaderThreads = threads;
+    }
+
+    /** @return il numero di download contemporanei di un AsyncLoader */
+    public static int getLoaderThreads() {
+        return loaderThreads;
+    }
+
+    /** Fa eseguire a ogni AsyncLoader ogni download in un nuovo virtual thread invece che in un pool
+     * di thread di sistema, con al massimo {@link CrawlSettings#getLoaderThreads()} download
+     * contemporanei. Adatto a molti download lenti con un Loader che non usa la WebEngine.
+     * Se la JVM non supporta i virtual thread (prima di Java 21) si usa comunque il pool.
+     * @param virtual  true per usare i virtual thread, false di default */
+    public static void setVirtualThreads(boolean virtual) {
+        virtualThreads = virtual;
+    }
+
+    /** @return true se gli AsyncLoader usano i virtual thread */
+    public static boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /** Fa creare ai Loader che analizzano il testo della pagina ({@link wsa.web.objects.HttpLoaderObject})
+     * un {@link wsa.web.html.LinksParsed}, che conserva solo i link e costruisce l'albero completo,
+     * rileggendo la pagina dalla {@link wsa.web.objects.PageCache}, solo se qualcuno lo usa. Vale solo per le
+     * pagine salvate in una cache, le altre hanno sempre l'albero completo. Conviene quando l'esplorazione
+     * serve solo a scoprire i link.
+     * @param links  true per l'analisi dei soli link, false di default */
+    public static void setLinksOnly(boolean links) {
+        linksOnly = links;
+    }
+
+    /** @return true se i Loader analizzano solo i link */
+    public static boolean isLinksOnly() {
+        return linksOnly;
+    }
+
+    /** Imposta quante {@link javafx.scene.web.WebEngine} possono esistere nel pool condiviso dai Loader
+     * che usano la WebEngine. Ogni download ne prende una in prestito; quando sono tutte in uso, i
+     * download successivi aspettano in ordine di arrivo che una venga restituita. Vale per i Loader
+     * creati dopo l'invocazione, anche le WebEngine già create in più sono scartate man mano.
+     * @param engines  numero massimo di WebEngine, 15 di default
+     * @throws IllegalArgumentException se il valore non è positivo */
+    public static void setWebEngines(int engines) {
+        if (engines <= 0)
+            throw new IllegalArgumentException();
+        webEngines = engines;
+    }
+
+    /** @return il numero massimo di WebEngine usate dai Loader */
+    public static int getWebEngines() {
+        return webEngines;
+    }
+
+    /** Imposta il tempo massimo per scaricare una pagina con la WebEngine. Allo scadere il download
+     * viene interrotto, il Loader ritorna un {@link LoadResult} con una
+     * {@link java.util.concurrent.TimeoutException} e la WebEngine usata viene sostituita, così una
+     * pagina che non finisce mai di caricare non blocca un thread dell'AsyncLoader per sempre.
+     * @param millis  tempo massimo in millisecondi, 30000 di default, 0 per nessun limite
+     * @throws IllegalArgumentException se il valore è negativo */
+    public static void setLoadTimeout(long millis) {
+        if (millis < 0)
+            throw new IllegalArgumentException();
+        loadTimeout = millis;
+    }
+
+    /** @return il tempo massimo in millisecondi per scaricare una pagina, 0 se non c'è limite */
+    public static long getLoadTimeout() {
+        return loadTimeout;
+    }
+
+    /** Imposta il profilo di rendering usato dai Loader che usano la WebEngine: JavaScript, risorse
+     * secondarie bloccate, tempo massimo di rendering e URL da scaricare senza WebEngine.
+     * @param profile  il profilo, {@link RenderProfile#DEFAULT} di default
+     * @throws NullPointerException se il profilo è null */
+    public static void setRenderProfile(RenderProfile profile) {
+        renderProfile = Objects.requireNonNull(profile);
+    }
+
+    /** @return il profilo di rendering dei Loader che usano la WebEngine */
+    public static RenderProfile getRenderProfile() {
+        return renderProfile;
+    }
+
+    /** Imposta dopo quante pagine una {@link javafx.scene.web.WebEngine} del pool viene ritirata e
+     * sostituita da una nuova, perché WebKit accumula memoria da un download all'altro.
+     * @param pages  pagine per WebEngine, 500 di default, 0 per non ritirarle mai
+     * @throws IllegalArgumentException se il valore è negativo */
+    public static void setEnginePageLimit(int pages) {
+        if (pages < 0)
+            throw new IllegalArgumentException();
+        enginePageLimit = pages;
+    }
+
+    /** @return le pagine dopo cui una WebEngine viene ritirata, 0 se non c'è limite */
+    public static int getEnginePageLimit() {
+        return enginePageLimit;
+    }
+
+    /** Imposta la frazione della memoria massima della JVM oltre la quale le WebEngine libere del pool
+     * sono ritirate, insieme a quella appena usata, invece di essere riusate. Si confronta la memoria
+     * rimasta occupata dopo l'ultima garbage collection, al più una volta per ogni garbage collection.
+     * @param fraction  frazione tra 0 e 1, 0.85 di default, 0 per non controllare la memoria
+     * @throws IllegalArgumentException se il valore non è tra 0 e 1 */
+    public static void setEngineHeapThreshold(double fraction) {
+        if (fraction < 0 || fraction > 1)
+            throw new IllegalArgumentException();
+        engineHeapThreshold = fraction;
+    }
+
+    /** @return la frazione della memoria oltre cui le WebEngine sono ritirate, 0 se non si controlla */
+    public static double getEngineHeapThreshold() {
+        return engineHeapThreshold;
+    }
+
+    /** Imposta la dimensione massima della cache delle pagine che un SiteCrawler con una directory di
+     * archiviazione crea nella sottodirectory "cache". Oltre la dimensione si eliminano le pagine usate
+     * meno di recente.
+     * @param bytes  dimensione massima in byte, 256 MB di default, 0 per non usare la cache
+     * @throws IllegalArgumentException se il valore è negativo */
+    public static void setCacheSize(long bytes) {
+        if (bytes < 0)
+            throw new IllegalArgumentException();
+        cacheSize = bytes;
+    }
+
+    /** @return la dimensione massima in byte della cache delle pagine, 0 se non si usa */
+    public static long getCacheSize() {
+        return cacheSize;
+    }
+
+    /** Imposta per quanto tempo una pagina nella cache è valida. Dopo, la pagina è richiesta di nuovo
+     * con una richiesta condizionale (If-None-Match / If-Modified-Since) e, se il server risponde che non
+     * è cambiata, si riusa quella della cache. Per le riesplorazioni periodiche di un sito conviene un
+     * valore minore dell'intervallo tra un'esplorazione e l'altra. Con 0 una pagina della cache non è mai
+     * usata senza prima chiedere al server se è cambiata; per non controllarle mai si usa {@link Long#MAX_VALUE}.
+     * @param millis  validità in millisecondi, un'ora di default
+     * @throws IllegalArgumentException se il valore è negativo */
+    public static void setCacheMaxAge(long millis) {
+        if (millis < 0)
+            throw new IllegalArgumentException();
+        cacheMaxAge = millis;
+    }
+
+    /** @return la validità in millisecondi delle pagine nella cache, 0 se sono sempre da controllare */
+    public static long getCacheMaxAge() {
+        return cacheMaxAge;
+    }
+
+    /** Attiva il prefiltro dei contenuti: i Crawler non scaricano gli URI la cui estensione è di un
+     * contenuto che non è HTML (immagini, PDF, archivi, ...) e i Loader, dagli header della risposta
+     * o con una richiesta HEAD prima di usare la WebEngine, non leggono i contenuti che non sono HTML
+     * o che superano {@link CrawlSettings#getMaxPageSize()}. Questi URI hanno un risultato con il
+     * relativo {@link ContentKind} invece di un errore.
+     * Attenzione: dall'estensione sono scartati anche .txt, .xml, .json, .css e .js, che qualche sito usa
+     * per pagine HTML, e con i Loader che usano la WebEngine ogni pagina costa una richiesta HEAD in più
+     * (una GET di cui si leggono solo gli header se il server non accetta la HEAD).
+     * @param enabled  true per il prefiltro, false di default per scaricare ogni URI */
+    public static void setPrefilter(boolean enabled) {
+        prefilter = enabled;
+    }
+
+    /** @return true se il prefiltro dei contenuti è attivo */
+    public static boolean isPrefilter() {
+        return prefilter;
+    }
+
+    /** Imposta la dimensione massima di una pagina. Con il prefiltro attivo le pagine che dichiarano
+     * una dimensione maggiore non sono scaricate e hanno un risultato di tipo {@link ContentKind#OVERSIZED};
+     * delle altre i Loader leggono al massimo questo numero di byte (dopo la decompressione) e analizzano
+     * solo la parte iniziale, segnando il risultato come troncato. Con un limite i Loader che usano la
+     * WebEngine scaricano loro la pagina e le passano il testo già limitato. Così la memoria usata da ogni download
+     * in corso ha un limite noto e si può scegliere il numero di download in parallelo in base all'heap.
+     * @param bytes  dimensione massima in byte, 10 MB di default, 0 per nessun limite
+     * @throws IllegalArgumentException se il valore è negativo */
+    public static void setMaxPageSize(long bytes) {
+        if (bytes < 0)
+            throw new IllegalArgumentException();
+        maxPageSize = bytes;
+    }
+
+    /** @return la dimensione massima in byte di una pagina, 0 se non c'è limite */
+    public static long getMaxPageSize() {
+        return maxPageSize;
+    }
+
+    /** Imposta l'ordine in cui i Crawler scaricano gli URI in attesa: prima quelli con il punteggio più
+     * alto, così anche un'esplorazione sospesa presto ha già scaricato le pagine più importanti.
+     * @param score  il punteggio, {@link FrontierScore#DEPTH} di default
+     * @throws NullPointerException se score è null */
+    public static void setFrontierScore(FrontierScore score) {
+        frontierScore = Objects.requireNonNull(score);
+    }
+
+    /** @return il punteggio con cui i Crawler ordinano gli URI da scaricare */
+    public static FrontierScore getFrontierScore() {
+        return frontierScore;
+    }
+
+    /** Imposta quanti URI da scaricare i Crawler con una directory (come quelli dei SiteCrawler con
+     * archivio) tengono al massimo in memoria. Gli altri sono scritti in file segmento nella directory e
+     * riletti a blocchi quando servono, così la dimensione dell'esplorazione è limitata dal disco e non
+     * dalla memoria.
+     * @param uris  il numero massimo di URI in memoria, 100000 di default, 0 per tenerli tutti in memoria
+     * @throws IllegalArgumentException se il valore è negativo */
+    public static void setFrontierMemory(int uris) {
+        if (uris < 0)
+            throw new IllegalArgumentException();
+        frontierMemory = uris;
+    }
+
+    /** @return il numero massimo di URI da scaricare tenuti in memoria, 0 se non c'è limite */
+    public static int getFrontierMemory() {
+        return frontierMemory;
+    }
+
+    /** Imposta come i Crawler riducono a forma canonica gli URI, prima di aggiungerli a quelli da
+     * scaricare e di controllare se sono già stati visti.
+     * @param canonicalizer  il canonicalizzatore, {@link UriCanonicalizer#DEFAULT} di default
+     * @throws NullPointerException se canonicalizer è null */
+    public static void setCanonicalizer(UriCanonicalizer canonicalizer) {
+        CrawlSettings.canonicalizer = Objects.requireNonNull(canonicalizer);
+    }
+
+    /** @return il canonicalizzatore usato dai Crawler */
+    public static UriCanonicalizer getCanonicalizer() {
+        return canonicalizer;
+    }
+
+    /** Imposta quanti download un Crawler può avere sottomesso al suo AsyncLoader e non ancora gestito.
+     * Raggiunto il limite gli URI restano nella frontiera e ne escono solo quando un download si
+     * conclude, così la memoria usata dalle code dell'AsyncLoader dipende da questo valore e non
+     * da quanti URI ci sono da scaricare. Conviene che sia almeno {@link CrawlSettings#getLoaderThreads()}.
+     * @param downloads  il numero massimo di download in corso, 64 di default
+     * @throws IllegalArgumentException se il valore non è positivo */
+    public static void setMaxInFlight(int downloads) {
+        if (downloads <= 0)
+            throw new IllegalArgumentException();
+        maxInFlight = downloads;
+    }
+
+    /** @return il numero massimo di download in corso di un Crawler */
+    public static int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /** Imposta quanti risultati possono aspettare di essere consumati da ogni subscriber di
+     * {@link Crawler#results()} e {@link SiteCrawler#results()}, oltre il Crawler aspetta al più
+     * {@link CrawlSettings#getResultWait()} e poi il risultato per quel subscriber è scartato.
+     * @param results  la dimensione del buffer, {@link Flow#defaultBufferSize()} di default
+     * @throws IllegalArgumentException se il valore non è positivo */
+    public static void setResultBuffer(int results) {
+        if (results <= 0)
+            throw new IllegalArgumentException();
+        resultBuffer = results;
+    }
+
+    /** @return la dimensione del buffer dei subscriber dei risultati */
+    public static int getResultBuffer() {
+        return resultBuffer;
+    }
+
+    /** Imposta quanto il Crawler aspetta al massimo che un subscriber dei risultati con il buffer pieno
+     * ne consumi qualcuno. Scaduto il tempo il nuovo risultato non è passato a quel subscriber, che può
+     * ritrovarlo con get, take, poll o tra gli URI scaricati: così un subscriber lento non ferma
+     * l'esplorazione. Vale per i Crawler e i SiteCrawler creati dopo l'invocazione.
+     * @param millis  l'attesa massima in millisecondi, 0 di default per non aspettare mai
+     * @throws IllegalArgumentException se il valore è negativo */
+    public static void setResultWait(long millis) {
+        if (millis < 0)
+            throw new IllegalArgumentException();
+        resultWait = millis;
+    }
+
+    /** @return l'attesa massima in millisecondi per un subscriber dei risultati con il buffer pieno */
+    public static long getResultWait() {
+        return resultWait;
+    }
+}
@@ -20,14 +20,35 @@ public class CrawlerResult {
     /** Se è null, la pagina è stata scaricata altrimenti non è stato possibile
      * scaricarla e l'eccezione ne dà la causa */
     public final Exception exc;
+    /** Il tipo di contenuto. Se non è {@link ContentKind#HTML} la pagina non è
+     * stata scaricata perché non è HTML o è troppo grande, ma non è un errore */
+    public final ContentKind kind;
+    /** Il valore dell'header Content-Type della risposta o null se non è noto */
+    public final String contentType;
+    /** true se la pagina superava la dimensione massima ed è stata analizzata solo la
+     * sua parte iniziale, quindi links potrebbe essere incompleta */
+    public final boolean truncated;
 
     public CrawlerResult(URI u, boolean lp, List<URI> ll, List<String> erl,
                          Exception e) {
+        this(u, lp, ll, erl, e, ContentKind.HTML, null);
+    }
+
+    public CrawlerResult(URI u, boolean lp, List<URI> ll, List<String> erl,
+                         Exception e, ContentKind k, String ct) {
+        this(u, lp, ll, erl, e, k, ct, false);
+    }
+
+    public CrawlerResult(URI u, boolean lp, List<URI> ll, List<String> erl,
+                         Exception e, ContentKind k, String ct, boolean t) {
         uri = u;
         linkPage = lp;
         links = ll;
         errRawLinks = erl;
         exc = e;
+        kind = k;
+        contentType = ct;
+        truncated = t;
     }
 }
 
@@ -0,0 +1,27 @@
+package wsa.web;
+
+import java.net.URI;
+
+/** Il punteggio con cui un Crawler sceglie il prossimo URI da scaricare: tra quelli in attesa è
+ * estratto quello con il punteggio più alto e, a parità di punteggio, quello aggiunto per primo.
+ * Il punteggio è ricalcolato quando cambiano la profondità o il numero di link entranti di un URI,
+ * quindi deve essere veloce e dipendere solo dai suoi argomenti. Si imposta con
+ * {@link CrawlSettings#setFrontierScore(FrontierScore)}, ad esempio
+ * <pre>
+ * CrawlSettings.setFrontierScore((uri, depth, inLinks) -&gt; inLinks - 2 * depth);
+ * </pre> */
+@FunctionalInterface
+public interface FrontierScore {
+
+    /** Prima gli URI più vicini ai seed (in visita in ampiezza), il default */
+    FrontierScore DEPTH = (uri, depth, inLinks) -> -depth;
+
+    /** Prima gli URI a cui puntano più link tra le pagine scaricate finora */
+    FrontierScore IN_LINKS = (uri, depth, inLinks) -> inLinks;
+
+    /** @param uri  l'URI in attesa di essere scaricato
+     * @param depth  il numero minimo di link da seguire per arrivarci da un seed, 0 per i seed
+     * @param inLinks  il numero di link che puntano all'URI nelle pagine scaricate finora
+     * @return il punteggio, gli URI con il punteggio più alto sono scaricati prima */
+    double score(URI uri, int depth, int inLinks);
+}
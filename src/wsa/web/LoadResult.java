@@ -14,11 +14,29 @@ public class LoadResult {
     /** Se diverso da null, la pagina non è stata scaricata e la causa è
      * specificata dall'eccezione */
     public final Exception exc;
+    /** Il tipo di contenuto. Se non è {@link ContentKind#HTML} la pagina non è stata scaricata
+     * perché non è HTML o è troppo grande, parsed è null ma non è un errore */
+    public final ContentKind kind;
+    /** Il valore dell'header Content-Type della risposta o null se non è noto */
+    public final String contentType;
+    /** true se la pagina superava la dimensione massima e parsed è l'analisi solo della sua parte iniziale */
+    public final boolean truncated;
 
     public LoadResult(URL u, Parsed p, Exception e) {
+        this(u, p, e, ContentKind.HTML, null);
+    }
+
+    public LoadResult(URL u, Parsed p, Exception e, ContentKind k, String ct) {
+        this(u, p, e, k, ct, false);
+    }
+
+    public LoadResult(URL u, Parsed p, Exception e, ContentKind k, String ct, boolean t) {
         url = u;
         parsed = p;
         exc = e;
+        kind = k;
+        contentType = ct;
+        truncated = t;
     }
 }
 
@@ -0,0 +1,109 @@
+package wsa.web;
+
+import java.net.URL;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/** Profilo di rendering per i Loader che usano la {@link javafx.scene.web.WebEngine}: dice se eseguire
+ * il JavaScript, quali tipi di risorse secondarie (immagini, fogli di stile, font, ...) non scaricare,
+ * per quanto tempo al massimo lasciar caricare una pagina e per quali URL non serve affatto la WebEngine.
+ * Un profilo non è modificabile, i metodi ritornano un nuovo profilo con l'opzione cambiata, ad esempio
+ * <pre>
+ * CrawlSettings.setRenderProfile(RenderProfile.DEFAULT.javaScript(false)
+ *         .block(RenderProfile.Subresource.IMAGE, RenderProfile.Subresource.FONT)
+ *         .maxRenderTime(5000).staticPattern("\\.(txt|xml)$"));
+ * </pre> */
+public final class RenderProfile {
+
+    /** Tipi di risorse secondarie che si possono bloccare */
+    public enum Subresource {
+        IMAGE("img-src"), STYLE("style-src"), FONT("font-src"), MEDIA("media-src"), FRAME("frame-src");
+
+        /** La direttiva Content-Security-Policy che blocca il tipo di risorsa */
+        public final String directive;
+
+        Subresource(String directive) {
+            this.directive = directive;
+        }
+    }
+
+    /** Il profilo di default: JavaScript attivo, tutte le risorse scaricate, nessun limite di tempo */
+    public static final RenderProfile DEFAULT = new RenderProfile(true, EnumSet.noneOf(Subresource.class), 0,
+            Collections.emptyList());
+
+    private final boolean javaScript;
+    private final Set<Subresource> blocked;
+    private final long maxRenderTime;
+    private final List<Pattern> staticPatterns;
+
+    private RenderProfile(boolean javaScript, Set<Subresource> blocked, long maxRenderTime, List<Pattern> staticPatterns) {
+        this.javaScript = javaScript;
+        this.blocked = Collections.unmodifiableSet(blocked);
+        this.maxRenderTime = maxRenderTime;
+        this.staticPatterns = Collections.unmodifiableList(staticPatterns);
+    }
+
+    /** @param enabled  true per eseguire il JavaScript delle pagine
+     * @return un profilo uguale a questo con il JavaScript attivato o disattivato */
+    public RenderProfile javaScript(boolean enabled) {
+        return new RenderProfile(enabled, blocked, maxRenderTime, staticPatterns);
+    }
+
+    /** Blocca i tipi di risorse specificati. La pagina è scaricata dal Loader e passata alla WebEngine
+     * con una Content-Security-Policy che ne vieta il download.
+     * @param types  i tipi di risorse da non scaricare
+     * @return un profilo uguale a questo che blocca anche i tipi specificati */
+    public RenderProfile block(Subresource... types) {
+        Set<Subresource> set = EnumSet.noneOf(Subresource.class);
+        set.addAll(blocked);
+        set.addAll(Arrays.asList(types));
+        return new RenderProfile(javaScript, set, maxRenderTime, staticPatterns);
+    }
+
+    /** Limita il tempo di rendering: allo scadere la pagina smette di caricare e si usa il documento così
+     * com'è in quel momento. A differenza di {@link CrawlSettings#setLoadTimeout(long)} non è un errore.
+     * @param millis  tempo massimo in millisecondi, 0 per nessun limite
+     * @return un profilo uguale a questo con il limite specificato
+     * @throws IllegalArgumentException se il valore è negativo */
+    public RenderProfile maxRenderTime(long millis) {
+        if (millis < 0)
+            throw new IllegalArgumentException();
+        return new RenderProfile(javaScript, blocked, millis, staticPatterns);
+    }
+
+    /** Aggiunge un'espressione regolare per gli URL delle pagine che non hanno bisogno della WebEngine:
+     * se è trovata nell'URL la pagina è scaricata e analizzata come testo da un
+     * {@link wsa.web.objects.HttpLoaderObject}.
+     * @param regex  un'espressione regolare cercata nell'URL
+     * @return un profilo uguale a questo con l'espressione aggiunta
+     * @throws java.util.regex.PatternSyntaxException se l'espressione non è valida */
+    public RenderProfile staticPattern(String regex) {
+        List<Pattern> list = new ArrayList<>(staticPatterns);
+        list.add(Pattern.compile(regex));
+        return new RenderProfile(javaScript, blocked, maxRenderTime, list);
+    }
+
+    /** @return true se il JavaScript delle pagine è eseguito */
+    public boolean isJavaScript() {
+        return javaScript;
+    }
+
+    /** @return l'insieme non modificabile dei tipi di risorse bloccati */
+    public Set<Subresource> getBlocked() {
+        return blocked;
+    }
+
+    /** @return il tempo massimo di rendering in millisecondi, 0 se non c'è limite */
+    public long getMaxRenderTime() {
+        return maxRenderTime;
+    }
+
+    /** @param url  l'URL di una pagina
+     * @return true se la pagina va scaricata senza la WebEngine */
+    public boolean isStatic(URL url) {
+        String s = url.toString();
+        for (Pattern p : staticPatterns)
+            if (p.matcher(s).find()) return true;
+        return false;
+    }
+}
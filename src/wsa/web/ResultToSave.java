@@ -23,6 +23,12 @@ public class ResultToSave implements Serializable {
     /** Se  null, la pagina  stata scaricata altrimenti non  stato possibile
      * scaricarla e l'eccezione ne d la causa */
     private final Exception exc;
+    /** Il tipo di contenuto, null negli archivi salvati prima che esistesse */
+    private final ContentKind kind;
+    /** Il valore dell'header Content-Type della risposta o null */
+    private final String contentType;
+    /** true se la pagina  stata troncata alla dimensione massima */
+    private final boolean truncated;
 
     public ResultToSave(CrawlerResult crawlerResult) {
         uri = crawlerResult.uri;
@@ -30,9 +36,13 @@ public class ResultToSave implements Serializable {
         links = crawlerResult.links;
         errRawLinks = crawlerResult.errRawLinks;
         exc = crawlerResult.exc;
+        kind = crawlerResult.kind;
+        contentType = crawlerResult.contentType;
+        truncated = crawlerResult.truncated;
     }
 
     public CrawlerResult getCResult(){
-        return new CrawlerResult(uri, linkPage, links, errRawLinks, exc);
+        return new CrawlerResult(uri, linkPage, links, errRawLinks, exc,
+                kind != null ? kind : ContentKind.HTML, contentType, truncated);
     }
 }
@@ -3,6 +3,10 @@ package wsa.web;
 import java.net.URI;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
 
 /** Un crawler specializzato per siti web. Se il SiteCrawler è stato creato con una
  * directory per l'archiviazione, allora ogni 30 secondi durante l'esplorazione
@@ -67,6 +71,78 @@ public interface SiteCrawler {
      * @return  il risultato relativo al prossimo URI scaricato */
     Optional<CrawlerResult> get();
 
+    /** Ritorna il risultato relativo al prossimo URI aspettando che sia pronto.
+     * A differenza di {@link SiteCrawler#get()} non ritorna mai un risultato con uri null.
+     * L'implementazione di default è {@link SiteCrawler#poll(long, TimeUnit)} senza limite di tempo.
+     * @throws IllegalStateException se il SiteCrawler è cancellato
+     * @throws InterruptedException se il thread è interrotto mentre aspetta
+     * @return il risultato relativo al prossimo URI scaricato, o null se il SiteCrawler
+     * non è in esecuzione o viene sospeso mentre si aspetta */
+    default CrawlerResult take() throws InterruptedException {
+        return poll(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    /** Ritorna il risultato relativo al prossimo URI aspettando al massimo il tempo
+     * specificato che sia pronto. L'implementazione di default invoca get ogni 10
+     * millisecondi finché il risultato è pronto, le implementazioni possono ridefinirla
+     * per essere svegliate appena lo è.
+     * @param timeout  il tempo massimo da aspettare
+     * @param unit  l'unità di misura di timeout
+     * @throws IllegalStateException se il SiteCrawler è cancellato
+     * @throws InterruptedException se il thread è interrotto mentre aspetta
+     * @return il risultato relativo al prossimo URI scaricato, o null se il tempo è
+     * scaduto o il SiteCrawler non è in esecuzione o viene sospeso mentre si aspetta */
+    default CrawlerResult poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            Optional<CrawlerResult> result = get();
+            if (!result.isPresent()) return null; // non in esecuzione
+            if (result.get().uri != null) return result.get();
+            long left = deadline - System.nanoTime();
+            if (left <= 0) return null;
+            TimeUnit.NANOSECONDS.sleep(Math.min(left, TimeUnit.MILLISECONDS.toNanos(10)));
+        }
+    }
+
+    /** Ritorna un publisher che passa ai suoi subscriber ogni nuovo risultato appena è
+     * pronto, indipendentemente da quelli presi con get, take e poll. Ogni subscriber ha
+     * un buffer di {@link CrawlSettings#getResultBuffer()} risultati: se è pieno il SiteCrawler
+     * aspetta al più {@link CrawlSettings#getResultWait()} che il subscriber ne consumi qualcuno,
+     * poi il risultato non è passato a quel subscriber. Quando il SiteCrawler è cancellato i
+     * subscriber ricevono onComplete.
+     * L'implementazione di default crea ogni volta un nuovo publisher e un thread daemon che,
+     * quando il publisher ha dei subscriber, prende i risultati con poll e glieli passa, quindi
+     * quei risultati non sono più ritornati da get, take e poll; le implementazioni possono
+     * ridefinirla per passare i risultati appena sono pronti senza toglierli agli altri metodi.
+     * @throws IllegalStateException se il SiteCrawler è cancellato
+     * @return il publisher dei risultati */
+    default Flow.Publisher<CrawlerResult> results() {
+        if (isCancelled()) throw new IllegalStateException();
+        SubmissionPublisher<CrawlerResult> publisher = new SubmissionPublisher<>(ForkJoinPool.commonPool(), CrawlSettings.getResultBuffer());
+        long wait = CrawlSettings.getResultWait();
+        Thread feeder = new Thread(() -> {
+            try {
+                while (!isCancelled() && !publisher.isClosed()) {
+                    if (!publisher.hasSubscribers()) { // i risultati restano a get, take e poll
+                        Thread.sleep(10);
+                        continue;
+                    }
+                    CrawlerResult result = poll(100, TimeUnit.MILLISECONDS);
+                    if (result != null)
+                        publisher.offer(result, wait, TimeUnit.MILLISECONDS, (s, r) -> false);
+                    else if (!isRunning())
+                        Thread.sleep(100); // sospeso, si aspetta che riparta o sia cancellato
+                }
+            } catch (InterruptedException | IllegalStateException ignored) { // cancellato
+            } finally {
+                publisher.close();
+            }
+        }, "SiteCrawler-results");
+        feeder.setDaemon(true);
+        feeder.start();
+        return publisher;
+    }
+
     /** Ritorna il risultato del tentativo di scaricare la pagina che
      * corrisponde all'URI dato.
      * @param uri  un URI
@@ -0,0 +1,159 @@
+package wsa.web;
+
+import java.net.URI;
+import java.util.*;
+
+/** Riduce gli URI a una forma canonica prima che un Crawler controlli se li ha già visti, così URI
+ * diversi per la stessa pagina sono scaricati una volta sola. Schema e host sono portati in minuscolo,
+ * la porta di default dello schema e il fragment sono tolti, dal path sono eliminati i segmenti
+ * {@code .} e {@code ..}, nelle sequenze {@code %xx} le cifre esadecimali sono in maiuscolo e i caratteri
+ * non riservati sono decodificati. Dalla query sono tolti i parametri di tracciamento e, se richiesto,
+ * i parametri sono ordinati per nome. Ad esempio {@code http://Host:80/a/../b#x} diventa
+ * {@code http://host/b}.
+ * Un canonicalizzatore non è modificabile, i metodi ritornano un nuovo canonicalizzatore con l'opzione
+ * cambiata, ad esempio
+ * <pre>
+ * CrawlSettings.setCanonicalizer(UriCanonicalizer.DEFAULT.sortQuery(true).stripParams("sessionid", "ref"));
+ * </pre> */
+public final class UriCanonicalizer {
+
+    /** Il canonicalizzatore di default: non ordina la query e toglie i parametri utm_* e gli
+     * identificativi di click più comuni */
+    public static final UriCanonicalizer DEFAULT = new UriCanonicalizer(false, new HashSet<>(Arrays.asList(
+            "utm_source", "utm_medium", "utm_campaign", "utm_term", "utm_content", "gclid", "fbclid", "msclkid")));
+
+    private static final String HEX = "0123456789ABCDEF";
+
+    private final boolean sortQuery;
+    private final Set<String> stripped; // nomi dei parametri da togliere, in minuscolo
+
+    private UriCanonicalizer(boolean sortQuery, Set<String> stripped) {
+        this.sortQuery = sortQuery;
+        this.stripped = Collections.unmodifiableSet(stripped);
+    }
+
+    /** @param sort  true per ordinare i parametri della query per nome
+     * @return un canonicalizzatore uguale a questo che ordina o no la query */
+    public UriCanonicalizer sortQuery(boolean sort) {
+        return new UriCanonicalizer(sort, new HashSet<>(stripped));
+    }
+
+    /** @param names  i nomi dei parametri della query da togliere, senza distinzione tra maiuscole e minuscole
+     * @return un canonicalizzatore uguale a questo che toglie anche i parametri specificati */
+    public UriCanonicalizer stripParams(String... names) {
+        Set<String> set = new HashSet<>(stripped);
+        for (String name : names)
+            set.add(name.toLowerCase(Locale.ROOT));
+        return new UriCanonicalizer(sortQuery, set);
+    }
+
+    /** @return un canonicalizzatore uguale a questo che non toglie nessun parametro dalla query */
+    public UriCanonicalizer keepParams() {
+        return new UriCanonicalizer(sortQuery, new HashSet<>());
+    }
+
+    /** @return true se i parametri della query sono ordinati per nome */
+    public boolean isSortQuery() {
+        return sortQuery;
+    }
+
+    /** @return l'insieme non modificabile dei nomi dei parametri tolti dalla query, in minuscolo */
+    public Set<String> getStrippedParams() {
+        return stripped;
+    }
+
+    /** @param uri  un URI
+     * @return la forma canonica dell'URI; se non è assoluto e gerarchico, o non si riesce a
+     * canonicalizzare, l'URI stesso */
+    public URI canonicalize(URI uri) {
+        if (uri == null || !uri.isAbsolute() || uri.isOpaque()) return uri;
+        String scheme = uri.getScheme().toLowerCase(Locale.ROOT);
+        String host = uri.getHost();
+        if (host == null && uri.getRawAuthority() != null) return uri; // authority non riconosciuta
+        StringBuilder s = new StringBuilder(scheme).append(':');
+        if (host != null) {
+            s.append("//");
+            if (uri.getRawUserInfo() != null) s.append(uri.getRawUserInfo()).append('@');
+            s.append(host.toLowerCase(Locale.ROOT));
+            int port = uri.getPort();
+            if (port != -1 && !(port == 80 && scheme.equals("http")) && !(port == 443 && scheme.equals("https")))
+                s.append(':').append(port);
+        }
+        String path = uri.getRawPath() == null ? "" : removeDots(normalizeEscapes(uri.getRawPath()));
+        if (path.isEmpty() && host != null) path = "/";
+        s.append(path);
+        String query = query(uri.getRawQuery());
+        if (query != null) s.append('?').append(query);
+        try {
+            return new URI(s.toString());
+        } catch (Exception e) {
+            return uri;
+        }
+    }
+
+    /** Toglie i parametri di tracciamento e, se richiesto, ordina quelli rimasti per nome mantenendo
+     * l'ordine dei valori di uno stesso nome
+     * @return la query o null se è vuota */
+    private String query(String raw) {
+        if (raw == null || raw.isEmpty()) return null;
+        List<String> params = new ArrayList<>();
+        for (String param : raw.split("&")) {
+            if (param.isEmpty()) continue;
+            int eq = param.indexOf('=');
+            String name = eq < 0 ? param : param.substring(0, eq);
+            if (!stripped.contains(name.toLowerCase(Locale.ROOT)))
+                params.add(normalizeEscapes(param));
+        }
+        if (params.isEmpty()) return null;
+        if (sortQuery)
+            params.sort(Comparator.comparing(p -> p.indexOf('=') < 0 ? p : p.substring(0, p.indexOf('='))));
+        return String.join("&", params);
+    }
+
+    /** Mette in maiuscolo le cifre delle sequenze %xx e decodifica quelle dei caratteri non riservati */
+    private static String normalizeEscapes(String raw) {
+        if (raw.indexOf('%') < 0) return raw;
+        StringBuilder s = new StringBuilder(raw.length());
+        for (int i = 0; i < raw.length(); i++) {
+            char c = raw.charAt(i);
+            int hi, lo;
+            if (c == '%' && i + 2 < raw.length()
+                    && (hi = Character.digit(raw.charAt(i + 1), 16)) >= 0
+                    && (lo = Character.digit(raw.charAt(i + 2), 16)) >= 0) {
+                char decoded = (char) (hi * 16 + lo);
+                if (isUnreserved(decoded)) s.append(decoded);
+                else s.append('%').append(HEX.charAt(hi)).append(HEX.charAt(lo));
+                i += 2;
+            } else {
+                s.append(c);
+            }
+        }
+        return s.toString();
+    }
+
+    private static boolean isUnreserved(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || c == '-' || c == '.' || c == '_' || c == '~';
+    }
+
+    /** Elimina dal path i segmenti . e .. come specificato nella RFC 3986, sezione 5.2.4 */
+    private static String removeDots(String path) {
+        if (!path.contains(".")) return path;
+        Deque<String> out = new ArrayDeque<>();
+        String[] segments = path.split("/", -1);
+        boolean absolute = path.startsWith("/");
+        for (int i = absolute ? 1 : 0; i < segments.length; i++) {
+            String seg = segments[i];
+            boolean last = i == segments.length - 1;
+            if (seg.equals(".")) {
+                if (last) out.addLast("");
+            } else if (seg.equals("..")) {
+                if (!out.isEmpty()) out.removeLast();
+                if (last) out.addLast("");
+            } else {
+                out.addLast(seg);
+            }
+        }
+        return (absolute ? "/" : "") + String.join("/", out);
+    }
+}
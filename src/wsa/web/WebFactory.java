@@ -26,7 +26,8 @@ import java.util.function.Predicate;
  * {@link WebFactory#getAsyncLoader()} e l'implementazione di
  * {@link wsa.web.WebFactory#getSiteCrawler(URI, Path)} deve usare esclusivamente
  * {@link wsa.web.Crawler} fornito da
- * {@link wsa.web.WebFactory#getCrawler(Collection, Collection, Collection, Predicate)}. */
+ * {@link wsa.web.WebFactory#getCrawler(Collection, Collection, Collection, Predicate)}
+ * o dalla sua variante con la directory per la frontiera su disco. */
 public class WebFactory {
 
     private static LoaderFactory loaderFactory = null;
@@ -37,6 +38,8 @@ public class WebFactory {
      * Inoltre, tutti gli altri metodi di questa classe devono funzionare correttamente
      * se i Loader forniti dalla factory impostata soddisfano le specifiche
      * dell'interfaccia {@link wsa.web.Loader}.
+     * Ad esempio {@code setLoaderFactory(HttpLoaderObject::new)} fa scaricare le pagine senza
+     * {@link javafx.scene.web.WebEngine} tramite {@link wsa.web.objects.HttpLoaderObject}.
      * @param lf  factory per Loader */
     public static void setLoaderFactory(LoaderFactory lf) {
         loaderFactory = lf;
@@ -100,6 +103,25 @@ public class WebFactory {
         return new CrawlerObject(loaded, toLoad, errs, pageLink);
     }
 
+    /** Come {@link WebFactory#getCrawler(Collection, Collection, Collection, Predicate)}, ma gli URI da
+     * scaricare oltre {@link CrawlSettings#getFrontierMemory()} sono tenuti in file nella directory
+     * specificata invece che in memoria. La directory è lo stato salvato di quella parte della frontiera:
+     * gli URI lasciati da un Crawler precedente sono ripresi e la cancellazione del Crawler non li elimina.
+     * @param loaded  insieme URI scaricati
+     * @param toLoad  insieme URI da scaricare
+     * @param errs  insieme URI con errori
+     * @param pageLink  determina gli URI per i quali i link contenuti nelle
+     *                  relative pagine sono usati per continuare il crawling
+     * @param spillDir  directory per gli URI da scaricare che non stanno in memoria, o null
+     * @return un Crawler con le proprietà specificate */
+    public static Crawler getCrawler(Collection<URI> loaded,
+                                     Collection<URI> toLoad,
+                                     Collection<URI> errs,
+                                     Predicate<URI> pageLink,
+                                     Path spillDir) {
+        return new CrawlerObject(loaded, toLoad, errs, pageLink, spillDir);
+    }
+
     /** Ritorna un {@link wsa.web.SiteCrawler}. Se dom e dir sono entrambi non null,
      * assume che sia un nuovo web site con dominio dom da archiviare nella directory
      * dir. Se dom non è null e dir è null, l'esplorazione del web site con dominio
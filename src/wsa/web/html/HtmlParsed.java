@@ -0,0 +1,153 @@
+package wsa.web.html;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.*;
+import java.util.function.Consumer;
+
+/** Albero di parsing costruito direttamente dal testo della pagina con un {@link HtmlTokenizer},
+ * in una sola passata e senza passare per un {@link org.w3c.dom.Document}. I link sono raccolti
+ * mentre l'albero viene costruito. Come per {@link ParsingTree} la radice è un nodo senza tag né
+ * contenuto e i nomi dei tag sono in maiuscolo, come quelli restituiti dalla WebEngine. */
+public class HtmlParsed implements Parsed {
+
+    /** Nodo dell'albero con la lista dei figli */
+    private static class Tree extends Node {
+
+        private final List<Tree> nodes;
+
+        Tree(String t, Map<String, String> a, String c) {
+            super(t, a, c);
+            nodes = t != null || c == null ? new ArrayList<>() : Collections.emptyList();
+        }
+    }
+
+    private final Tree root;
+    private final List<String> links;
+    private final TagIndex tags;
+
+    private HtmlParsed() {
+        root = new Tree(null, null, null);
+        links = new ArrayList<>();
+        tags = new TagIndex();
+    }
+
+    /** Legge la pagina dal reader e ne crea l'albero di parsing. Il reader non viene chiuso.
+     * @param reader  il testo della pagina
+     * @return l'albero di parsing
+     * @throws IOException se la lettura fallisce */
+    public static HtmlParsed parse(Reader reader) throws IOException {
+        HtmlParsed parsed = new HtmlParsed();
+        new HtmlTokenizer(reader, parsed.new Builder()).run();
+        return parsed;
+    }
+
+    /** Costruisce l'albero dai token. Gli elementi aperti sono su una pila: un tag di chiusura chiude
+     * l'elemento aperto più vicino con lo stesso nome (e quelli aperti dopo di lui), se non c'è è ignorato. */
+    private class Builder implements HtmlTokenizer.Handler {
+
+        private final ArrayDeque<Tree> open = new ArrayDeque<>();
+
+        Builder() {
+            open.push(root);
+        }
+
+        @Override
+        public void startTag(String name, Map<String, String> attr, boolean selfClosing) {
+            closeImplied(name);
+            Tree element = new Tree(name.toUpperCase(Locale.ROOT), attr, null);
+            open.peek().nodes.add(element);
+            tags.add(element);
+            if (name.equals("a") && attr.containsKey("href")) links.add(attr.get("href"));
+            if (!selfClosing && !isVoid(name)) open.push(element);
+        }
+
+        @Override
+        public void endTag(String name) {
+            String tag = name.toUpperCase(Locale.ROOT);
+            for (Tree t : open) {
+                if (t == root) return;
+                if (tag.equals(t.tag)) {
+                    while (open.pop() != t);
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void text(String text) {
+            open.peek().nodes.add(new Tree(null, null, text));
+        }
+
+        @Override
+        public void comment(String text) {
+            open.peek().nodes.add(new Tree(null, null, text));
+        }
+
+        /** Chiude gli elementi la cui chiusura è implicita nell'apertura di name, ad esempio un
+         * &lt;li&gt; chiude il &lt;li&gt; precedente e un &lt;div&gt; chiude un &lt;p&gt; aperto. */
+        private void closeImplied(String name) {
+            Tree current = open.peek();
+            if (current == root) return;
+            String cur = current.tag.toLowerCase(Locale.ROOT);
+            boolean close;
+            switch (name) {
+                case "li": close = cur.equals("li") || cur.equals("p"); break;
+                case "dt": case "dd": close = cur.equals("dt") || cur.equals("dd") || cur.equals("p"); break;
+                case "option": close = cur.equals("option"); break;
+                case "td": case "th": close = cur.equals("td") || cur.equals("th"); break;
+                case "tr": close = cur.equals("tr") || cur.equals("td") || cur.equals("th"); break;
+                case "p": case "div": case "ul": case "ol": case "dl": case "table": case "form": case "pre":
+                case "h1": case "h2": case "h3": case "h4": case "h5": case "h6": case "blockquote": case "hr":
+                    close = cur.equals("p"); break;
+                default: close = false;
+            }
+            if (close) {
+                open.pop();
+                if (name.equals("tr") && (cur.equals("td") || cur.equals("th"))) closeImplied(name);
+            }
+        }
+    }
+
+    /** @param name  nome di un tag in minuscolo
+     * @return true se l'elemento non ha mai contenuto né tag di chiusura */
+    private static boolean isVoid(String name) {
+        switch (name) {
+            case "area": case "base": case "br": case "col": case "embed": case "hr": case "img": case "input":
+            case "link": case "meta": case "param": case "source": case "track": case "wbr":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /** Esegue la visita dell'intero albero di parsing in pre-ordine, con una pila esplicita
+     * così la profondità dell'albero non è limitata dallo stack del thread.
+     * @param visitor  visitatore invocato su ogni nodo dell'albero */
+    @Override
+    public void visit(Consumer<Node> visitor) {
+        iterator().forEachRemaining(visitor);
+    }
+
+    /** @return un iteratore in pre-ordine che produce i nodi solo quando sono chiesti */
+    @Override
+    public Iterator<Node> iterator() {
+        return new Traversal<>(root, t -> t.nodes);
+    }
+
+    /** Ritorna la lista (possibilmente vuota) dei links contenuti nella pagina
+     * @return la lista dei links (mai null) */
+    @Override
+    public List<String> getLinks() {
+        return links;
+    }
+
+    /** Ritorna la lista (possibilmente vuota) dei nodi con lo specificato tag.
+     * La lista non è modificabile ed è presa dall'indice creato insieme all'albero.
+     * @param tag  un nome di tag
+     * @return la lista dei nodi con il dato tag (mai null) */
+    @Override
+    public List<Node> getByTag(String tag) {
+        return tags.get(tag);
+    }
+}
@@ -0,0 +1,386 @@
+package wsa.web.html;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/** Tokenizer HTML tollerante che legge il testo una sola volta da un {@link Reader}, con un buffer
+ * di dimensione fissa, e notifica i token trovati a un {@link Handler} man mano che li incontra.
+ * Non costruisce nessun albero: è chi riceve i token a decidere cosa tenere.
+ * Il markup malformato non produce mai errori, al peggio diventa testo. */
+public class HtmlTokenizer {
+
+    /** Riceve i token nell'ordine in cui compaiono nella pagina */
+    public interface Handler {
+        /** Un tag di apertura.
+         * @param name  nome del tag in minuscolo
+         * @param attr  attributi con i nomi in minuscolo e i valori già decodificati
+         * @param selfClosing  true se il tag termina con "/>" */
+        void startTag(String name, Map<String, String> attr, boolean selfClosing);
+
+        /** Un tag di chiusura.
+         * @param name  nome del tag in minuscolo */
+        void endTag(String name);
+
+        /** Testo tra due tag, con le entità già decodificate.
+         * @param text  il testo */
+        void text(String text);
+
+        /** Un commento.
+         * @param text  il testo del commento */
+        void comment(String text);
+
+        /** Se ritorna false gli attributi del tag sono saltati senza essere decodificati e
+         * {@link Handler#startTag} riceve una mappa vuota.
+         * @param name  nome del tag in minuscolo
+         * @return true se interessano gli attributi del tag */
+        default boolean wantsAttributes(String name) {
+            return true;
+        }
+
+        /** Se ritorna false il testo e i commenti sono saltati senza essere accumulati.
+         * @return true se interessano testo e commenti */
+        default boolean wantsText() {
+            return true;
+        }
+    }
+
+    /** Buffer riusati: uno per thread, preso da run e restituito alla fine */
+    private static final ThreadLocal<char[]> buffers = new ThreadLocal<>();
+
+    private final Reader reader;
+    private final Handler handler;
+    private char[] buf;
+    private int pos, limit;
+    private int pushback = -2; // carattere rimesso nello stream da unread, -2 se nessuno
+    private final StringBuilder text = new StringBuilder();
+    private final boolean keepText;
+
+    /** COSTRUTTORE
+     * @param reader  il testo della pagina
+     * @param handler  chi riceve i token */
+    public HtmlTokenizer(Reader reader, Handler handler) {
+        this.reader = reader;
+        this.handler = handler;
+        keepText = handler.wantsText();
+    }
+
+    /** Legge tutto il testo fino alla fine dello stream notificando i token all'handler.
+     * @throws IOException se la lettura fallisce */
+    public void run() throws IOException {
+        buf = buffers.get();
+        if (buf == null) buf = new char[8192];
+        else buffers.set(null); // se un handler usa un altro tokenizer, quello ne crea uno nuovo
+        try {
+            tokenize();
+        } finally {
+            buffers.set(buf);
+            buf = null;
+        }
+    }
+
+    private void tokenize() throws IOException {
+        int c;
+        while ((c = read()) != -1) {
+            if (c != '<') {
+                if (keepText) text.append((char) c);
+                continue;
+            }
+            int n = read();
+            if (n == '/') {
+                int first = read();
+                if (isLetter(first)) {
+                    flushText();
+                    String name = readName(first);
+                    skipTo('>');
+                    handler.endTag(name);
+                } else if (first != -1) {
+                    flushText();
+                    unread(first);
+                    skipTo('>'); // "</ ..." o "</>" vengono ignorati
+                } else if (keepText) {
+                    text.append("</");
+                }
+            } else if (n == '!') {
+                flushText();
+                markupDeclaration();
+            } else if (n == '?') {
+                flushText();
+                skipTo('>');
+            } else if (isLetter(n)) {
+                flushText();
+                startTag(readName(n));
+            } else {
+                if (keepText) text.append('<');
+                unread(n);
+            }
+        }
+        flushText();
+    }
+
+    /** Legge gli attributi di un tag di apertura e lo notifica. Per gli elementi con testo grezzo
+     * (script, style, ...) legge anche il contenuto fino al tag di chiusura. */
+    private void startTag(String name) throws IOException {
+        if (!handler.wantsAttributes(name)) {
+            boolean selfClosing = skipAttributes();
+            handler.startTag(name, Collections.emptyMap(), selfClosing);
+            if (!selfClosing && isRawText(name)) rawText(name);
+            return;
+        }
+        Map<String, String> attr = new HashMap<>();
+        boolean selfClosing = false;
+        int c = skipSpaces(read());
+        while (c != -1 && c != '>') {
+            if (c == '/') {
+                c = read();
+                if (c == '>') {
+                    selfClosing = true;
+                    break;
+                }
+                continue;
+            }
+            StringBuilder attrName = new StringBuilder();
+            while (c != -1 && c != '>' && c != '/' && c != '=' && !isSpace(c)) {
+                attrName.append(Character.toLowerCase((char) c));
+                c = read();
+            }
+            c = skipSpaces(c);
+            String value = "";
+            if (c == '=') {
+                c = skipSpaces(read());
+                StringBuilder v = new StringBuilder();
+                if (c == '"' || c == '\'') {
+                    int quote = c;
+                    while ((c = read()) != -1 && c != quote) v.append((char) c);
+                    c = read();
+                } else {
+                    while (c != -1 && c != '>' && !isSpace(c)) {
+                        v.append((char) c);
+                        c = read();
+                    }
+                }
+                value = decode(v);
+            }
+            if (attrName.length() > 0) attr.putIfAbsent(attrName.toString(), value);
+            c = skipSpaces(c);
+        }
+        handler.startTag(name, attr, selfClosing);
+        if (!selfClosing && isRawText(name)) rawText(name);
+    }
+
+    /** Salta gli attributi fino alla fine del tag, rispettando le virgolette
+     * @return true se il tag termina con "/&gt;" */
+    private boolean skipAttributes() throws IOException {
+        int c, last = -1;
+        while ((c = read()) != -1 && c != '>') {
+            if (c == '"' || c == '\'') {
+                int quote = c;
+                while ((c = read()) != -1 && c != quote);
+            }
+            last = c;
+        }
+        return last == '/';
+    }
+
+    /** Legge il contenuto di un elemento di testo grezzo fino a "&lt;/name", senza interpretare i tag */
+    private void rawText(String name) throws IOException {
+        String end = "</" + name;
+        int c;
+        while ((c = read()) != -1) {
+            text.append((char) c); // serve per trovare la chiusura anche se il testo non interessa
+            if (Character.toLowerCase((char) c) != end.charAt(end.length() - 1) || text.length() < end.length()) continue;
+            int start = text.length() - end.length();
+            if (!endsWithIgnoreCase(text, end)) continue;
+            int next = read();
+            if (next == -1 || next == '>' || next == '/' || isSpace(next)) {
+                text.setLength(start);
+                String raw = text.toString();
+                text.setLength(0);
+                if (!raw.isEmpty() && keepText)
+                    handler.text(name.equals("title") || name.equals("textarea") ? decode(raw) : raw);
+                if (next != '>' && next != -1) skipTo('>');
+                handler.endTag(name);
+                return;
+            }
+            unread(next);
+        }
+        flushText();
+    }
+
+    /** Dopo "&lt;!": un commento "&lt;!-- --&gt;" o una dichiarazione (DOCTYPE, CDATA) che viene saltata */
+    private void markupDeclaration() throws IOException {
+        int c = read();
+        if (c == '-') {
+            int d = read();
+            if (d == '-') {
+                StringBuilder comment = new StringBuilder();
+                int dashes = 0;
+                while ((c = read()) != -1) {
+                    if (c == '>' && dashes >= 2) {
+                        if (keepText) comment.setLength(comment.length() - 2);
+                        break;
+                    }
+                    dashes = c == '-' ? dashes + 1 : 0;
+                    if (keepText) comment.append((char) c);
+                }
+                if (keepText) handler.comment(comment.toString());
+                return;
+            }
+            unread(d);
+        }
+        if (c != '>') skipTo('>');
+    }
+
+    private void flushText() {
+        if (text.length() == 0) return;
+        if (!keepText) {
+            text.setLength(0);
+            return;
+        }
+        String s = decode(text);
+        text.setLength(0);
+        handler.text(s);
+    }
+
+    private String readName(int first) throws IOException {
+        StringBuilder name = new StringBuilder();
+        int c = first;
+        while (c != -1 && c != '>' && c != '/' && !isSpace(c)) {
+            name.append(Character.toLowerCase((char) c));
+            c = read();
+        }
+        unread(c);
+        return name.toString();
+    }
+
+    private void skipTo(int stop) throws IOException {
+        int c;
+        while ((c = read()) != -1 && c != stop);
+    }
+
+    private int skipSpaces(int c) throws IOException {
+        while (isSpace(c)) c = read();
+        return c;
+    }
+
+    private int read() throws IOException {
+        if (pushback != -2) {
+            int c = pushback;
+            pushback = -2;
+            return c;
+        }
+        if (pos == limit) {
+            limit = reader.read(buf, 0, buf.length);
+            pos = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buf[pos++];
+    }
+
+    private void unread(int c) {
+        pushback = c;
+    }
+
+    private static boolean endsWithIgnoreCase(StringBuilder s, String end) {
+        int start = s.length() - end.length();
+        for (int i = 0; i < end.length(); i++)
+            if (Character.toLowerCase(s.charAt(start + i)) != end.charAt(i)) return false;
+        return true;
+    }
+
+    private static boolean isLetter(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isSpace(int c) {
+        return c == ' ' || c == '\n' || c == '\t' || c == '\r' || c == '\f';
+    }
+
+    /** @param name  nome di un tag in minuscolo
+     * @return true se il contenuto dell'elemento non contiene tag */
+    private static boolean isRawText(String name) {
+        switch (name) {
+            case "script": case "style": case "textarea": case "title": case "xmp": case "iframe": case "noembed":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static final Map<String, Character> ENTITIES = new HashMap<>();
+    static {
+        ENTITIES.put("amp", '&');
+        ENTITIES.put("lt", '<');
+        ENTITIES.put("gt", '>');
+        ENTITIES.put("quot", '"');
+        ENTITIES.put("apos", '\'');
+        ENTITIES.put("nbsp", '\u00a0');
+        ENTITIES.put("copy", '\u00a9');
+        ENTITIES.put("reg", '\u00ae');
+        ENTITIES.put("egrave", '\u00e8');
+        ENTITIES.put("eacute", '\u00e9');
+        ENTITIES.put("agrave", '\u00e0');
+        ENTITIES.put("ograve", '\u00f2');
+        ENTITIES.put("ugrave", '\u00f9');
+        ENTITIES.put("igrave", '\u00ec');
+        ENTITIES.put("Egrave", '\u00c8');
+        ENTITIES.put("Eacute", '\u00c9');
+        ENTITIES.put("Agrave", '\u00c0');
+        ENTITIES.put("Ograve", '\u00d2');
+        ENTITIES.put("Ugrave", '\u00d9');
+        ENTITIES.put("Igrave", '\u00cc');
+    }
+
+    /** Entità che l'HTML accetta anche scritte tutte in maiuscolo, le altre distinguono maiuscole e minuscole */
+    private static final Set<String> UPPERCASE_ALIASES = new HashSet<>(Arrays.asList("AMP", "LT", "GT", "QUOT", "COPY", "REG"));
+
+    /** Decodifica i riferimenti a carattere numerici e le entità più comuni, con il nome scritto esattamente
+     * come nella tabella (&amp;Egrave; non è &amp;egrave;). Quelli non riconosciuti restano come sono. */
+    static String decode(CharSequence s) {
+        int amp = indexOf(s, '&', 0);
+        if (amp < 0) return s.toString();
+        StringBuilder out = new StringBuilder(s.length());
+        int i = 0;
+        while (amp >= 0) {
+            out.append(s, i, amp);
+            int semi = indexOf(s, ';', amp);
+            i = amp + 1;
+            if (semi > amp + 1 && semi - amp <= 10) {
+                String ref = s.subSequence(amp + 1, semi).toString();
+                int code = -1;
+                try {
+                    if (ref.startsWith("#x") || ref.startsWith("#X")) code = Integer.parseInt(ref.substring(2), 16);
+                    else if (ref.startsWith("#")) code = Integer.parseInt(ref.substring(1));
+                    else if (ENTITIES.containsKey(ref)) code = ENTITIES.get(ref);
+                    else if (UPPERCASE_ALIASES.contains(ref)) code = ENTITIES.get(ref.toLowerCase(Locale.ROOT));
+                } catch (NumberFormatException ignored) {}
+                if (code >= 0 && Character.isValidCodePoint(code)) {
+                    out.appendCodePoint(code);
+                    i = semi + 1;
+                } else {
+                    out.append('&');
+                }
+            } else {
+                out.append('&');
+            }
+            amp = indexOf(s, '&', i);
+        }
+        out.append(s, i, s.length());
+        return out.toString();
+    }
+
+    private static int indexOf(CharSequence s, char c, int from) {
+        for (int i = from; i < s.length(); i++)
+            if (s.charAt(i) == c) return i;
+        return -1;
+    }
+}
@@ -0,0 +1,118 @@
+package wsa.web.html;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.function.Consumer;
+
+/** Analisi leggera di una pagina per le esplorazioni che usano solo i link. Il testo è letto una volta
+ * con un {@link HtmlTokenizer} che guarda solamente gli attributi dei tag &lt;a&gt; e salta tutto il resto,
+ * senza creare nodi né conservare il testo: in memoria restano solo i link.
+ * L'albero completo ({@link HtmlParsed}) viene costruito solo la prima volta che si invoca
+ * {@link LinksParsed#visit(Consumer)}, {@link LinksParsed#iterator()} o {@link LinksParsed#getByTag(String)},
+ * rileggendo la pagina dalla sorgente data a {@link LinksParsed#parse(Reader, Callable)}. I Loader la usano
+ * solo per le pagine salvate in una cache su disco, così la rilettura non passa mai per la rete e
+ * ritrova lo stesso testo da cui sono stati presi i link; se la pagina non c'è più quei metodi lanciano
+ * una {@link IllegalStateException}. */
+public class LinksParsed implements Parsed {
+
+    private final List<String> links;
+    private Callable<Reader> source; // riapre il testo della pagina, null dopo aver costruito l'albero
+    private HtmlParsed tree;
+
+    private LinksParsed(List<String> links, Callable<Reader> source) {
+        this.links = links;
+        this.source = source;
+    }
+
+    /** Legge la pagina dal reader raccogliendo solo i link. Il reader non viene chiuso.
+     * @param reader  il testo della pagina
+     * @param source  riapre lo stesso testo della pagina se serve l'albero completo
+     * @return l'analisi della pagina
+     * @throws IOException se la lettura fallisce */
+    public static LinksParsed parse(Reader reader, Callable<Reader> source) throws IOException {
+        Objects.requireNonNull(source);
+        List<String> links = new ArrayList<>();
+        new HtmlTokenizer(reader, new HtmlTokenizer.Handler() {
+            @Override
+            public void startTag(String name, Map<String, String> attr, boolean selfClosing) {
+                String href = attr.get("href");
+                if (href != null) links.add(href);
+            }
+
+            @Override
+            public void endTag(String name) {}
+
+            @Override
+            public void text(String text) {}
+
+            @Override
+            public void comment(String text) {}
+
+            @Override
+            public boolean wantsAttributes(String name) {
+                return name.equals("a");
+            }
+
+            @Override
+            public boolean wantsText() {
+                return false;
+            }
+        }).run();
+        return new LinksParsed(links, source);
+    }
+
+    /** Costruisce l'albero completo la prima volta che serve, rileggendo la pagina
+     * @return l'albero di parsing della pagina
+     * @throws IllegalStateException se rileggere la pagina fallisce */
+    private synchronized HtmlParsed tree() {
+        if (tree == null) {
+            try (Reader reader = source.call()) {
+                tree = HtmlParsed.parse(reader);
+            } catch (IllegalStateException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+            source = null;
+        }
+        return tree;
+    }
+
+    /** Esegue la visita dell'intero albero di parsing, costruendolo se necessario
+     * @param visitor  visitatore invocato su ogni nodo dell'albero
+     * @throws IllegalStateException se la pagina non si può rileggere */
+    @Override
+    public void visit(Consumer<Node> visitor) {
+        tree().visit(visitor);
+    }
+
+    /** @return un iteratore in pre-ordine sui nodi dell'albero, costruendolo se necessario
+     * @throws IllegalStateException se la pagina non si può rileggere */
+    @Override
+    public Iterator<Node> iterator() {
+        return tree().iterator();
+    }
+
+    /** Ritorna la lista (possibilmente vuota) dei links contenuti nella pagina
+     * @return la lista dei links (mai null) */
+    @Override
+    public List<String> getLinks() {
+        return links;
+    }
+
+    /** Ritorna la lista (possibilmente vuota) dei nodi con lo specificato tag,
+     * costruendo l'albero se necessario
+     * @param tag  un nome di tag
+     * @return la lista dei nodi con il dato tag (mai null)
+     * @throws IllegalStateException se la pagina non si può rileggere */
+    @Override
+    public List<Node> getByTag(String tag) {
+        return tree().getByTag(tag);
+    }
+}
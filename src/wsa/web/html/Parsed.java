@@ -1,11 +1,13 @@
 package wsa.web.html;
 
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Consumer;
 
 /** Rappresenta l'albero di analisi sintattica (parsing) di una pagina web */
-public interface Parsed {
+public interface Parsed extends Iterable<Parsed.Node> {
 
     /** Un nodo dell'albero di parsing della pagina */
     class Node {
@@ -27,6 +29,17 @@ public interface Parsed {
      * @param visitor  visitatore invocato su ogni nodo dell'albero */
     void visit(Consumer<Node> visitor);
 
+    /** Ritorna un iteratore sui nodi dell'albero nello stesso ordine (pre-ordine) di
+     * {@link Parsed#visit(Consumer)}. L'implementazione di default raccoglie prima tutti i nodi,
+     * quelle del package li producono man mano così ci si può fermare senza visitare tutto l'albero.
+     * @return un iteratore sui nodi dell'albero */
+    @Override
+    default Iterator<Node> iterator() {
+        List<Node> nodes = new ArrayList<>();
+        visit(nodes::add);
+        return nodes.iterator();
+    }
+
     /** Ritorna la lista (possibilmente vuota) dei links contenuti nella pagina
      * @return la lista dei links (mai null) */
     List<String> getLinks();
@@ -15,7 +15,7 @@ public class ParsingTree implements Parsed{
 
     private AtomicReference<Tree> tree = new AtomicReference<>(); //albero di parsing atomico
     private AtomicReference<List<String>> links = new AtomicReference<>(); // lista atomica di stringhe, che sono indirizzi a pagine web
-    private AtomicReference<List<Node>> nodeTags = new AtomicReference<>(); // lista atomica di oggi Node
+    private AtomicReference<TagIndex> tags = new AtomicReference<>(); // indice atomico dei nodi per tag
 
 
     /** Classe annidata che estende {@link wsa.web.html.Parsed.Node},
@@ -24,16 +24,12 @@ public class ParsingTree implements Parsed{
      */
     private class Tree extends Node{
 
-        private List<Tree> nodes;
+        private final List<Tree> nodes;
 
-        Tree(org.w3c.dom.Node node) {
+        /** Crea il nodo senza i figli, che sono aggiunti da build */
+        Tree(org.w3c.dom.Node node, int children) {
             super(tag(node), attr(node), content(node));
-            NodeList list = node.getChildNodes();
-            nodes = new ArrayList<>();
-            for (int i = 0 ; i < list.getLength() ; i++){
-                org.w3c.dom.Node child = list.item(i);
-                nodes.add(new Tree(child));
-            }
+            nodes = children == 0 ? Collections.emptyList() : new ArrayList<>(children);
         }
     }
 
@@ -42,27 +38,45 @@ public class ParsingTree implements Parsed{
      * @param document da cui crea l'albero di parsing usando la classe {@link wsa.web.html.ParsingTree.Tree}
      */
     public ParsingTree(org.w3c.dom.Node document){
-        nodeTags.set(new ArrayList<>()); // crea la lista per nodeTags
+        tags.set(new TagIndex()); // crea l'indice per tags
         links.set(new ArrayList<>()); // crea la lista per links
-        tree.set( new Tree(document) ); // crea l'albero per tree
-        init(); // riempe nodeTags e links con gli oggetti opportuni
+        tree.set( build(document) ); // crea l'albero per tree e riempe tags e links
     }
 
 
-    private void init(){
-
-        // aggiunge gli indirizzi nella lista di String, links, utile per getLinks
-        visit(node -> {
-            if (node.tag != null) {
-                if (node.tag.equalsIgnoreCase("a")) {
-                    links.get().addAll(node.attr.keySet().stream().
-                            filter("href"::equalsIgnoreCase).map(node.attr::get).collect(Collectors.toList()));
+    /** Crea l'albero con una pila esplicita invece della ricorsione, cos pagine annidate
+     * a qualunque profondit non esauriscono lo stack. I nodi escono dalla pila in pre-ordine e
+     * nella stessa passata si aggiungono gli indirizzi a links, utile per getLinks, e i nodi
+     * all'indice tags, utile per getByTag.
+     * @param document la radice del documento
+     * @return la radice dell'albero di parsing */
+    private Tree build(org.w3c.dom.Node document){
+        ArrayDeque<org.w3c.dom.Node> domStack = new ArrayDeque<>();
+        ArrayDeque<Tree> treeStack = new ArrayDeque<>();
+        Tree root = new Tree(document, document.getChildNodes().getLength());
+        domStack.push(document);
+        treeStack.push(root);
+        while (!treeStack.isEmpty()) {
+            org.w3c.dom.Node node = domStack.pop();
+            Tree t = treeStack.pop();
+            if (t.tag != null) {
+                if (t.tag.equalsIgnoreCase("a")) {
+                    links.get().addAll(t.attr.keySet().stream().
+                            filter("href"::equalsIgnoreCase).map(t.attr::get).collect(Collectors.toList()));
                 }
+                tags.get().add(t);
             }
-        });
-
-        //aggiunge node nella lista di node, Nodetags, utile per getByTag
-        visit(node -> { if (node.tag != null) nodeTags.get().add(node); });
+            NodeList list = node.getChildNodes();
+            for (int i = 0 ; i < list.getLength() ; i++){
+                org.w3c.dom.Node child = list.item(i);
+                t.nodes.add(new Tree(child, child.getChildNodes().getLength()));
+            }
+            for (int i = list.getLength() - 1 ; i >= 0 ; i--){ // al contrario, cos il primo figlio esce per primo
+                domStack.push(list.item(i));
+                treeStack.push(t.nodes.get(i));
+            }
+        }
+        return root;
     }
 
 /** usato per dei test
@@ -123,17 +137,18 @@ public class ParsingTree implements Parsed{
     }
 
 
-    /** Esegue la visita dell'intero albero di parsing
+    /** Esegue la visita dell'intero albero di parsing, in pre-ordine e senza ricorsione
      * @param visitor  visitatore invocato su ogni nodo dell'albero */
     @Override
     public void visit(Consumer<Node> visitor) {
-        ricerca(tree.get(), visitor);
+        iterator().forEachRemaining(visitor);
     }
 
-    private void ricerca(Tree t, Consumer<Node> consumer) {
-        consumer.accept(t);
-        for (Tree tree : t.nodes)
-            ricerca(tree, consumer);
+    /** @return un iteratore in pre-ordine che produce i nodi solo quando sono chiesti,
+     * per fermarsi senza visitare tutto l'albero */
+    @Override
+    public Iterator<Node> iterator() {
+        return new Traversal<>(tree.get(), t -> t.nodes);
     }
 
 
@@ -146,11 +161,12 @@ public class ParsingTree implements Parsed{
     }
 
 
-    /** Ritorna la lista (possibilmente vuota) dei nodi con lo specificato tag
+    /** Ritorna la lista (possibilmente vuota) dei nodi con lo specificato tag.
+     * La lista non  modificabile ed  presa dall'indice creato da build.
      * @param tag  un nome di tag
      * @return la lista dei nodi con il dato tag (mai null) */
     @Override
     public List<Node> getByTag(String tag) {
-        return nodeTags.get().stream().filter(n -> n.tag.equalsIgnoreCase(tag)).collect(Collectors.toList());
+        return tags.get().get(tag);
     }
 }
@@ -0,0 +1,25 @@
+package wsa.web.html;
+
+import java.util.*;
+
+/** Indice dei nodi di un albero di parsing per nome del tag, con le chiavi in minuscolo.
+ * Viene riempito mentre si costruisce l'albero, poi {@link TagIndex#get(String)} costa
+ * quanto una ricerca in una HashMap, indipendentemente dalla dimensione della pagina. */
+class TagIndex {
+
+    private final Map<String, List<Parsed.Node>> byTag = new HashMap<>();
+
+    /** Aggiunge un elemento all'indice, i nodi senza tag sono ignorati
+     * @param node  un nodo dell'albero */
+    void add(Parsed.Node node) {
+        if (node.tag == null) return;
+        byTag.computeIfAbsent(node.tag.toLowerCase(Locale.ROOT), k -> new ArrayList<>()).add(node);
+    }
+
+    /** @param tag  un nome di tag, le maiuscole non contano
+     * @return la lista non modificabile dei nodi con quel tag, nell'ordine dell'albero (mai null) */
+    List<Parsed.Node> get(String tag) {
+        List<Parsed.Node> nodes = byTag.get(tag.toLowerCase(Locale.ROOT));
+        return nodes == null ? Collections.emptyList() : Collections.unmodifiableList(nodes);
+    }
+}
@@ -0,0 +1,44 @@
+package wsa.web.html;
+
+import java.util.*;
+import java.util.function.Function;
+
+/** Iteratore in pre-ordine su un albero di parsing. Al posto della ricorsione usa una pila esplicita
+ * con un iteratore per ogni livello aperto, quindi la profondità dell'albero non è limitata dallo
+ * stack del thread e i nodi sono prodotti solo quando vengono chiesti: chi usa l'iteratore può
+ * fermarsi prima di aver visto tutto l'albero.
+ * @param <T>  il tipo dei nodi dell'albero */
+class Traversal<T extends Parsed.Node> implements Iterator<Parsed.Node> {
+
+    private final Function<T, List<T>> children;
+    private final ArrayDeque<Iterator<T>> stack = new ArrayDeque<>();
+    private T next;
+
+    /** COSTRUTTORE
+     * @param root  la radice dell'albero, è il primo nodo ritornato
+     * @param children  ritorna la lista dei figli di un nodo (mai null) */
+    Traversal(T root, Function<T, List<T>> children) {
+        this.children = children;
+        next = root;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    @Override
+    public Parsed.Node next() {
+        if (next == null) throw new NoSuchElementException();
+        T current = next;
+        List<T> list = children.apply(current);
+        if (!list.isEmpty()) stack.push(list.iterator());
+        next = null;
+        while (next == null && !stack.isEmpty()) {
+            Iterator<T> level = stack.peek();
+            if (level.hasNext()) next = level.next();
+            else stack.pop();
+        }
+        return current;
+    }
+}
@@ -1,6 +1,7 @@
 package wsa.web.objects;
 
 import wsa.web.AsyncLoader;
+import wsa.web.CrawlSettings;
 import wsa.web.LoadResult;
 import wsa.web.Loader;
 import wsa.web.WebFactory;
@@ -15,15 +16,37 @@ public class AsyncLoaderObject implements AsyncLoader {
 
     private LinkedBlockingQueue<Loader> queue;
     private final ExecutorService pool;
+    private final Semaphore permits; // limita i download contemporanei con i virtual thread, altrimenti null
+    private final HostScheduler scheduler; // distribuisce i download al pool rispettando i limiti per host
 
-    /** COSTRUTTORE */
+    /** COSTRUTTORE, il numero di download contemporanei e il tipo di thread sono presi da {@link CrawlSettings} */
     public AsyncLoaderObject(){
-        queue = new LinkedBlockingQueue<>(15);
-        pool = Executors.newFixedThreadPool(15, r -> {
-            Thread thread = new Thread(r);
-            thread.setDaemon(true);
-            return thread;
-        });
+        int threads = CrawlSettings.getLoaderThreads();
+        queue = new LinkedBlockingQueue<>(threads);
+        ExecutorService virtual = CrawlSettings.isVirtualThreads() ? virtualThreadExecutor() : null;
+        if (virtual != null) {
+            pool = virtual;
+            permits = new Semaphore(threads);
+        } else {
+            pool = Executors.newFixedThreadPool(threads, r -> {
+                Thread thread = new Thread(r);
+                thread.setDaemon(true);
+                return thread;
+            });
+            permits = null;
+        }
+        scheduler = new HostScheduler(pool, CrawlSettings.getHostRate(), CrawlSettings.getMaxConnectionsPerHost());
+    }
+
+    /** Crea un executor che usa un nuovo virtual thread per ogni task. Il metodo  invocato tramite
+     * reflection perch esiste solo da Java 21.
+     * @return l'executor o null se la JVM non supporta i virtual thread */
+    private static ExecutorService virtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
     }
 
     /** Sottomette il downloading della pagina dello specificato URL e ritorna
@@ -33,30 +56,47 @@ public class AsyncLoaderObject implements AsyncLoader {
      * @return Future per ottenere il risultato in modo asincrono */
     @Override
     public Future<LoadResult> submit(URL url) {
+        return submitAsync(url);
+    }
+
+    /** Sottomette il downloading della pagina dello specificato URL e ritorna
+     * un CompletableFuture che viene completato, nel thread del pool che ha scaricato
+     * la pagina, appena il download  concluso. Il download passa prima per la coda
+     * dell'host dell'URL nello {@link HostScheduler}. Se il loader  chiuso mentre il download
+     *  ancora in coda, il future  completato con una {@link CancellationException}.
+     * @param url  un URL di una pagina web
+     * @throws IllegalStateException se il loader  chiuso
+     * @return CompletableFuture completato con il risultato del download */
+    @Override
+    public CompletableFuture<LoadResult> submitAsync(URL url) {
         if (isShutdown())
             throw new IllegalStateException();
 
-    //Callable per il submit
-        Callable<LoadResult> callable = () -> {
+        CompletableFuture<LoadResult> future = new CompletableFuture<>();
+        LinkedBlockingQueue<Loader> loaders = queue; // dopo lo shutdown il campo  null
+        scheduler.submit(url, () -> {
+            if (future.isDone()) return; // cancellato mentre era in coda
+            if (permits != null) permits.acquireUninterruptibly();
 
             Loader loader = null;
-
-            //aspetta 20 millisecondi per prenderlo
             try {
-                loader = queue.poll(20, TimeUnit.MILLISECONDS);
-            } catch (InterruptedException ignored){}
-            //se non  riuscito a prenderlo allora ne creo uno nuovo
-            if (loader == null) {
-                loader = WebFactory.getLoader();
+                //aspetta 20 millisecondi per prenderlo
+                try {
+                    loader = loaders.poll(20, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException ignored){}
+                //se non  riuscito a prenderlo allora ne creo uno nuovo
+                if (loader == null) {
+                    loader = WebFactory.getLoader();
+                }
+                future.complete(loader.load(url));
+            } catch (Throwable t) { // anche se la factory o il loader falliscono il future  completato
+                future.completeExceptionally(t);
+            } finally {
+                if (permits != null) permits.release();
             }
-            LoadResult loadResult = loader.load(url);
-            queue.add(loader);
-
-            return loadResult;
-        };
-    //Callable per il submit
-
-        return pool.submit(callable);
+            if (loader != null) loaders.offer(loader);
+        }, future::completeExceptionally); // mai eseguito: chi aspetta il future non resta bloccato
+        return future;
     }
 
     /** Chiude il loader asincrono e rilascia tutte le risorse. Dopo di ci non pu pi
@@ -66,6 +106,7 @@ public class AsyncLoaderObject implements AsyncLoader {
     @Override
     public void shutdown() {
         if (!isShutdown()) {
+            scheduler.shutdown();
             pool.shutdown();
             queue.clear();
             queue = null;
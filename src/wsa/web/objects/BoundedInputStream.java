@@ -0,0 +1,70 @@
+package wsa.web.objects;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/** Stream che legge al massimo un numero fissato di byte dallo stream sottostante e poi si comporta come se
+ * fosse finito. Così il parser lavora su una finestra limitata della pagina e la memoria usata da un download
+ * non dipende da quanto è grande la pagina. Se lo stream sottostante aveva altri byte la lettura è stata
+ * troncata e {@link BoundedInputStream#isTruncated()} ritorna true. */
+class BoundedInputStream extends FilterInputStream {
+
+    private long remaining; // byte che si possono ancora leggere
+    private boolean truncated;
+
+    /** COSTRUTTORE
+     * @param in  lo stream da leggere
+     * @param limit  il numero massimo di byte da leggere, 0 per nessun limite */
+    BoundedInputStream(InputStream in, long limit) {
+        super(in);
+        remaining = limit > 0 ? limit : Long.MAX_VALUE;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (remaining <= 0) return end();
+        int b = super.read();
+        if (b >= 0) remaining--;
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        if (remaining <= 0) return end();
+        int n = super.read(b, off, (int) Math.min(len, remaining));
+        if (n > 0) remaining -= n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(Math.min(n, remaining));
+        remaining -= skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(super.available(), remaining);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /** Raggiunto il limite controlla con un solo byte se lo stream sottostante aveva altro da leggere */
+    private int end() throws IOException {
+        if (!truncated && super.read() >= 0)
+            truncated = true;
+        remaining = 0;
+        return -1;
+    }
+
+    /** @return true se il limite è stato raggiunto e lo stream sottostante aveva ancora dei byte */
+    boolean isTruncated() {
+        return truncated;
+    }
+}
@@ -0,0 +1,64 @@
+package wsa.web.objects;
+
+import wsa.web.ContentKind;
+import wsa.web.LoadResult;
+
+import java.net.URI;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/** Classificazione economica dei contenuti prima di scaricarli e analizzarli: dall'estensione dell'URL,
+ * senza nessuna richiesta, e dagli header Content-Type e Content-Length della risposta (o di una HEAD).
+ * Quello che non è HTML o è troppo grande diventa un {@link LoadResult} con il suo {@link ContentKind}
+ * invece di un download completo seguito da un errore. */
+final class ContentPrefilter {
+
+    /** Estensioni di contenuti che non sono mai pagine HTML */
+    private static final Set<String> NON_HTML_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "pdf", "png", "jpg", "jpeg", "gif", "bmp", "svg", "webp", "ico", "tif", "tiff",
+            "mp3", "mp4", "m4a", "m4v", "avi", "mov", "mkv", "webm", "wav", "ogg", "flac",
+            "zip", "gz", "tgz", "bz2", "xz", "7z", "rar", "tar", "jar", "exe", "msi", "dmg", "iso", "apk", "deb", "rpm", "bin",
+            "doc", "docx", "xls", "xlsx", "ppt", "pptx", "odt", "ods", "odp", "rtf", "csv", "txt", "xml",
+            "css", "js", "json", "woff", "woff2", "ttf", "otf", "eot"));
+
+    private ContentPrefilter() {}
+
+    /** @param uri  un URI
+     * @return {@link ContentKind#NON_HTML} se l'estensione dell'ultimo segmento del path è di un contenuto che non
+     * è HTML, altrimenti {@link ContentKind#HTML} (che qui vuol dire solo che potrebbe esserlo) */
+    static ContentKind byExtension(URI uri) {
+        String path = uri.getPath();
+        if (path == null) return ContentKind.HTML;
+        int slash = path.lastIndexOf('/');
+        int dot = path.lastIndexOf('.');
+        if (dot <= slash + 1 || dot == path.length() - 1) return ContentKind.HTML;
+        String ext = path.substring(dot + 1).toLowerCase(Locale.ROOT);
+        return NON_HTML_EXTENSIONS.contains(ext) ? ContentKind.NON_HTML : ContentKind.HTML;
+    }
+
+    /** @param contentType  il valore dell'header Content-Type o null
+     * @param length  il valore dell'header Content-Length, negativo se manca
+     * @param maxSize  la dimensione massima di una pagina, 0 per nessun limite
+     * @return il tipo del contenuto; se l'header Content-Type manca si assume che sia HTML */
+    static ContentKind byHeaders(String contentType, long length, long maxSize) {
+        if (contentType != null) {
+            String mime = contentType.split(";", 2)[0].trim().toLowerCase(Locale.ROOT);
+            if (!mime.isEmpty() && !mime.equals("text/html") && !mime.equals("application/xhtml+xml"))
+                return ContentKind.NON_HTML;
+        }
+        if (maxSize > 0 && length > maxSize)
+            return ContentKind.OVERSIZED;
+        return ContentKind.HTML;
+    }
+
+    /** @param url  l'URL del contenuto
+     * @param kind  il tipo del contenuto, non HTML
+     * @param contentType  il valore dell'header Content-Type o null
+     * @return il risultato per un contenuto che non è stato scaricato perché non è una pagina da analizzare */
+    static LoadResult skipped(URL url, ContentKind kind, String contentType) {
+        return new LoadResult(url, null, null, kind, contentType);
+    }
+}
@@ -6,13 +6,13 @@ import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.file.Path;
 import java.util.*;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Predicate;
 
 
@@ -25,16 +25,34 @@ public class CrawlerObject implements Crawler {
      * pu essere creato in modo tale che solamente le pagine di URI selezionati
      * sono usate per continuare il crawling. */
 
-    private AtomicReference<Set<URI>> toLoad, loaded, errs;
+    /** Stati del thread del crawler: RUNNING mentre sottomette URI della frontiera o gestisce risultati,
+     * DRAINING se non pu sottomettere niente (la frontiera  vuota o ci sono gi troppi download in corso)
+     * e aspetta che si concluda un download, o se  sospeso con dei download ancora in corso,
+     * IDLE se non c' niente da fare (o il Crawler  sospeso o cancellato) e il thread  fermo */
+    public enum State { IDLE, RUNNING, DRAINING }
+
+    private Frontier toLoad;
+    private AtomicReference<Set<URI>> loaded, errs;
     private Predicate<URI> pageLink;
 
-    private boolean running, cancelled;
-    private AtomicBoolean futureFound;
+    private volatile boolean running;
+    private volatile State state;
+    private volatile boolean cancelled;
+    private final ReentrantLock lock;
+    private final Condition work; // segnalata quando c' un nuovo URI, un download concluso o una sospensione
+    private final Condition ready; // segnalata quando c' un nuovo risultato o una sospensione
 
     private AsyncLoader asyncLoader;
-    private ConcurrentLinkedQueue<Future<LoadResult>> futures;
+    private AtomicInteger pending; // download sottomessi e non ancora gestiti
+    private final int maxInFlight; // limite di pending, oltre gli URI restano nella frontiera
+    private final long resultWait; // millisecondi di attesa per un subscriber con il buffer pieno
+    private LinkedBlockingQueue<LoadResult> completed; // risultati dei download conclusi, in ordine di completamento
     private ConcurrentLinkedQueue<CrawlerResult> crawlerResults;
-    private ConcurrentLinkedQueue<URL> urlSubmitted;
+    private volatile SubmissionPublisher<CrawlerResult> publisher; // creato alla prima richiesta di results()
+    private SeenSet submitted; // impronte degli URI gi sottomessi all'AsyncLoader
+    private Map<URI, Integer> depths; // profondit degli URI sottomessi e non ancora gestiti
+    private final boolean prefilter; // se scartare dall'estensione gli URI che non sono pagine HTML
+    private final UriCanonicalizer canonicalizer; // forma canonica degli URI, prima dei controlli sui duplicati
     private final ExecutorService executor;
 
 
@@ -45,25 +63,47 @@ public class CrawlerObject implements Crawler {
                          Collection<URI> errs,
                          Predicate<URI> pageLink)
     {
+        this(loaded, toLoad, errs, pageLink, null);
+    }
+
+    /** COSTRUTTORE, con spillDir diverso da null gli URI da scaricare oltre
+     * {@link CrawlSettings#getFrontierMemory()} sono tenuti su disco in quella directory */
+    public CrawlerObject(Collection<URI> loaded,
+                         Collection<URI> toLoad,
+                         Collection<URI> errs,
+                         Predicate<URI> pageLink,
+                         Path spillDir)
+    {
+        canonicalizer = CrawlSettings.getCanonicalizer();
         this.loaded = new AtomicReference<>();
         this.loaded.set(new HashSet<>());
-        this.toLoad = new AtomicReference<>();
-        this.toLoad.set(new HashSet<>());
+        this.toLoad = new Frontier(CrawlSettings.getFrontierScore(), spillDir, CrawlSettings.getFrontierMemory());
         this.errs = new AtomicReference<>();
         this.errs.set(new HashSet<>());
 
-        if (loaded != null) loaded.stream().forEach(this.loaded.get()::add);
-        if (toLoad != null) toLoad.stream().forEach(this.toLoad.get()::add);
-        if (errs != null) errs.stream().forEach(this.errs.get()::add);
+        if (loaded != null) loaded.stream().map(canonicalizer::canonicalize).forEach(this.loaded.get()::add);
+        if (toLoad != null) toLoad.stream().map(canonicalizer::canonicalize).forEach(this.toLoad::add);
+        if (errs != null) errs.stream().map(canonicalizer::canonicalize).forEach(this.errs.get()::add);
 
         if (pageLink != null) this.pageLink = pageLink;
         else this.pageLink = uri -> true;
 
         running = false;
+        state = State.IDLE;
         cancelled = false;
-        futures = new ConcurrentLinkedQueue<>();
+        lock = new ReentrantLock();
+        work = lock.newCondition();
+        ready = lock.newCondition();
+        pending = new AtomicInteger();
+        completed = new LinkedBlockingQueue<>();
         crawlerResults = new ConcurrentLinkedQueue<>();
-        urlSubmitted = new ConcurrentLinkedQueue<>();
+        submitted = CrawlSettings.getBloomExpected() > 0
+                ? SeenSet.bloom(CrawlSettings.getBloomExpected(), CrawlSettings.getBloomFpp())
+                : new SeenSet();
+        depths = new ConcurrentHashMap<>();
+        prefilter = CrawlSettings.isPrefilter();
+        maxInFlight = CrawlSettings.getMaxInFlight();
+        resultWait = CrawlSettings.getResultWait();
         executor = Executors.newSingleThreadExecutor(r -> {
             Thread t = new Thread(r);
             t.setDaemon(true);
@@ -71,7 +111,6 @@ public class CrawlerObject implements Crawler {
         });
 
         asyncLoader = null;
-        futureFound = new AtomicBoolean(false);
     }
 
 
@@ -79,17 +118,26 @@ public class CrawlerObject implements Crawler {
     /** Aggiunge un URI all'insieme degli URI da scaricare. Se per  presente
      * tra quelli gi scaricati, quelli ancora da scaricare o quelli che sono
      * andati in errore, l'aggiunta non ha nessun effetto. Se invece  un nuovo
-     * URI,  aggiunto all'insieme di quelli da scaricare.
+     * URI,  aggiunto all'insieme di quelli da scaricare. I controlli e l'aggiunta
+     * sono fatti sulla forma canonica dell'URI, data da {@link CrawlSettings#getCanonicalizer()}.
      * @throws IllegalStateException se il Crawler  cancellato
      * @param uri  un URI che si vuole scaricare */
 
     @Override
     public void add(URI uri) {
+        add(uri, 0);
+    }
+
+    /** Aggiunge un URI alla frontiera come {@link CrawlerObject#add(URI)}, con la sua profondit. Se  gi
+     * nella frontiera ne aggiorna la profondit e il numero di link entranti, che contano per il punteggio.
+     * @param uri  un URI che si vuole scaricare
+     * @param depth  0 per un seed, altrimenti la profondit della pagina che contiene il link pi uno */
+    private void add(URI uri, int depth) {
         except();
+        uri = canonicalizer.canonicalize(uri);
         if (loaded.get().contains(uri)) return;
         if (errs.get().contains(uri)) return;
-        if (toLoad.get().contains(uri)) return;
-        toLoad.get().add(uri);
+        if (toLoad.add(uri, depth)) signal();
     }
 
     /** Inizia l'esecuzione del Crawler se non  gi in esecuzione e ci sono URI
@@ -104,93 +152,143 @@ public class CrawlerObject implements Crawler {
         if (isRunning()) return;
 
         running = true;
+        state = State.RUNNING;
         if (asyncLoader == null) asyncLoader = WebFactory.getAsyncLoader();
 
+        // ogni giro del ciclo gestisce un solo URI o un solo risultato, quando non c' niente
+        // da fare il thread resta in attesa su work senza consumare CPU. Un URI esce dalla
+        // frontiera solo se ci sono meno di maxInFlight download in corso
         executor.submit(() -> {
             while (isRunning()) {
-                if (!toLoad.get().isEmpty()) {
-                    ConcurrentLinkedQueue<URI> urisToRemove = new ConcurrentLinkedQueue<>();
-
-                    toLoad.get().stream().forEach(uriToLoad -> {
-                        try {
-                            URL url = uriToLoad.toURL();
-                            if (!urlSubmitted.contains(url)) {
-                                urlSubmitted.add(url);
-                                futures.add(asyncLoader.submit(url));
+                Map.Entry<URI, Integer> next = pending.get() < maxInFlight ? toLoad.pollWithDepth() : null;
+                if (next != null) {
+                    URI uriToLoad = next.getKey();
+                    state = State.RUNNING;
+                    try {
+                        URL url = uriToLoad.toURL();
+                        if (submitted.add(uriToLoad)) {
+                            depths.put(uriToLoad, next.getValue());
+                            if (prefilter && ContentPrefilter.byExtension(uriToLoad) == ContentKind.NON_HTML) {
+                                pending.incrementAndGet(); // non  scaricato, il risultato  subito pronto
+                                completed.add(ContentPrefilter.skipped(url, ContentKind.NON_HTML, null));
+                            } else {
+                                submit(url);
                             }
-                        } catch (MalformedURLException e) {
-                            errs.get().add(uriToLoad);
                         }
-                        urisToRemove.add(uriToLoad);
-                    });
-                    urisToRemove.stream().forEach(uri -> toLoad.get().remove(uri));
-
-                } else {
-                    if (!futures.isEmpty()) {
-
-                        futureFound.set(false);
+                    } catch (MalformedURLException e) {
+                        errs.get().add(uriToLoad);
+                    }
+                    continue;
+                }
 
-                        futures.stream().forEach(this::handleFutures);
+                LoadResult loadResult = completed.poll();
+                if (loadResult != null) {
+                    state = State.RUNNING;
+                    handleResult(loadResult);
+                    continue;
+                }
 
-                        if (!futureFound.get()) {
-                            try {
-                                Thread.sleep(1000);
-                            } catch (InterruptedException e) {
-                                e.printStackTrace();
-                            }
-                        }
+                lock.lock();
+                try {
+                    while (isRunning() && (toLoad.isEmpty() || pending.get() >= maxInFlight) && completed.isEmpty()) {
+                        state = pending.get() > 0 ? State.DRAINING : State.IDLE;
+                        work.await();
                     }
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                } finally {
+                    lock.unlock();
                 }
             }
+            // sospeso: i download in corso restano nella finestra finch il crawler non riparte
+            state = !isCancelled() && pending.get() > 0 ? State.DRAINING : State.IDLE;
         });
     }
 
-    private void handleFutures(Future<LoadResult> future){
-        List<String> links;
+    /** Sveglia il thread del crawler se  in attesa su {@link CrawlerObject#work} */
+    private void signal() {
+        lock.lock();
         try {
-            if (future.isDone()) {
-
-                futureFound.set(true);
-
-                futures.remove(future);
-
-                LoadResult loadResult = future.get();
-
-                if (loadResult == null )return;
-
-                URI mainURI = loadResult.url.toURI();
-
-                if (loadResult.exc != null) {
-                    errs.get().add(mainURI);
-                    crawlerResults.add(new CrawlerResult(mainURI, false, null, null, loadResult.exc));
-                } else {
+            work.signalAll();
+            ready.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
 
-                    List<URI> urisForCralRes = new ArrayList<>();
-                    List<String> errsForCralRes = new ArrayList<>();
+    /** Rende disponibile un nuovo risultato: lo mette nella coda di get, take e poll, sveglia chi
+     * aspetta in take o poll e lo passa ai subscriber di {@link CrawlerObject#results()}
+     * @param result  il risultato */
+    private void publish(CrawlerResult result) {
+        crawlerResults.add(result);
+        lock.lock();
+        try {
+            ready.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        SubmissionPublisher<CrawlerResult> p = publisher;
+        if (p != null && p.hasSubscribers()) // un subscriber con il buffer pieno perde il risultato, il crawler non si ferma
+            p.offer(result, resultWait, TimeUnit.MILLISECONDS, (subscriber, dropped) -> false);
+    }
 
-                    if (pageLink.test(mainURI)) {
-                        links = loadResult.parsed.getLinks();
+    /** Sottomette il download all'{@link AsyncLoader} e, quando si conclude, mette il risultato
+     * nella coda {@link CrawlerObject#completed} da cui lo prende il thread del crawler.
+     * @param url URL della pagina da scaricare */
+    private void submit(URL url) {
+        pending.incrementAndGet();
+        asyncLoader.submitAsync(url).whenComplete((loadResult, ex) -> {
+            if (loadResult == null) loadResult = new LoadResult(url, null, new Exception("Download fallito!", ex));
+            completed.add(loadResult);
+            signal();
+        });
+    }
 
-                        links.stream().forEach(s -> {
-                            try {
-                                URI uri = new URI(s);
-                                URI absURI = mainURI.resolve(uri);
-                                add(absURI);
-                                urisForCralRes.add(absURI);
-                            } catch (URISyntaxException e) {
-                                errsForCralRes.add(s);
-                            }
-                        });
-                    }
-                        if (!loaded.get().contains(mainURI)) {
-                            crawlerResults.add(new CrawlerResult(mainURI,
-                                    !urisForCralRes.isEmpty(),
-                                    !urisForCralRes.isEmpty() ? urisForCralRes : null,
-                                    !errsForCralRes.isEmpty() ? errsForCralRes : null,
-                                    null));
+    /** Gestisce il risultato di un download concluso: aggiorna gli insiemi degli URI,
+     * aggiunge i link trovati a quelli da scaricare e crea il {@link CrawlerResult}.
+     * @param loadResult risultato preso dalla coda {@link CrawlerObject#completed} */
+    private void handleResult(LoadResult loadResult){
+        List<String> links;
+        pending.decrementAndGet();
+        try {
+            URI mainURI = loadResult.url.toURI();
+            Integer depth = depths.remove(mainURI);
+            int linkDepth = depth != null ? depth + 1 : 1;
+
+            if (loadResult.exc != null) {
+                errs.get().add(mainURI);
+                publish(new CrawlerResult(mainURI, false, null, null, loadResult.exc));
+            } else if (loadResult.kind != ContentKind.HTML) { // non  una pagina da analizzare, non ha link
+                if (loaded.get().add(mainURI))
+                    publish(new CrawlerResult(mainURI, false, null, null, null,
+                            loadResult.kind, loadResult.contentType));
+            } else {
+
+                List<URI> urisForCralRes = new ArrayList<>();
+                List<String> errsForCralRes = new ArrayList<>();
+
+                if (pageLink.test(mainURI)) {
+                    links = loadResult.parsed.getLinks();
+
+                    links.stream().forEach(s -> {
+                        try {
+                            URI uri = new URI(s);
+                            URI absURI = canonicalizer.canonicalize(mainURI.resolve(uri));
+                            add(absURI, linkDepth);
+                            urisForCralRes.add(absURI);
+                        } catch (URISyntaxException e) {
+                            errsForCralRes.add(s);
                         }
-                    loaded.get().add(mainURI);
+                    });
                 }
+                if (!loaded.get().contains(mainURI)) {
+                    publish(new CrawlerResult(mainURI,
+                            !urisForCralRes.isEmpty(),
+                            !urisForCralRes.isEmpty() ? urisForCralRes : null,
+                            !errsForCralRes.isEmpty() ? errsForCralRes : null,
+                            null, ContentKind.HTML, loadResult.contentType, loadResult.truncated));
+                }
+                loaded.get().add(mainURI);
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -211,6 +309,57 @@ public class CrawlerObject implements Crawler {
         return Optional.of(crawlerResults.poll());
     }
 
+    /** Ritorna il risultato relativo al prossimo URI aspettando che sia pronto.
+     * @throws IllegalStateException se il Crawler  cancellato
+     * @throws InterruptedException se il thread  interrotto mentre aspetta
+     * @return il risultato relativo al prossimo URI scaricato, o null se il Crawler
+     * non  in esecuzione o viene sospeso mentre si aspetta */
+    @Override
+    public CrawlerResult take() throws InterruptedException {
+        except();
+        lock.lockInterruptibly();
+        try {
+            while (isRunning() && crawlerResults.isEmpty())
+                ready.await();
+            return isRunning() ? crawlerResults.poll() : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Ritorna il risultato relativo al prossimo URI aspettando al massimo il tempo specificato.
+     * @param timeout  il tempo massimo da aspettare
+     * @param unit  l'unit di misura di timeout
+     * @throws IllegalStateException se il Crawler  cancellato
+     * @throws InterruptedException se il thread  interrotto mentre aspetta
+     * @return il risultato relativo al prossimo URI scaricato, o null se il tempo  scaduto
+     * o il Crawler non  in esecuzione o viene sospeso mentre si aspetta */
+    @Override
+    public CrawlerResult poll(long timeout, TimeUnit unit) throws InterruptedException {
+        except();
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (isRunning() && crawlerResults.isEmpty() && nanos > 0)
+                nanos = ready.awaitNanos(nanos);
+            return isRunning() ? crawlerResults.poll() : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Ritorna il publisher dei nuovi risultati, con un buffer di {@link CrawlSettings#getResultBuffer()}
+     * risultati per subscriber. I risultati sono passati ai subscriber nel pool comune di Java.
+     * @throws IllegalStateException se il Crawler  cancellato
+     * @return il publisher dei risultati */
+    @Override
+    public synchronized Flow.Publisher<CrawlerResult> results() {
+        except();
+        if (publisher == null)
+            publisher = new SubmissionPublisher<>(ForkJoinPool.commonPool(), CrawlSettings.getResultBuffer());
+        return publisher;
+    }
+
     /** Sospende l'esecuzione del Crawler. Se non  in esecuzione, ignora
      * l'invocazione. L'esecuzione pu essere ripresa invocando start. Durante
      * la sospensione l'attivit del Crawler dovrebbe essere ridotta al minimo
@@ -223,6 +372,7 @@ public class CrawlerObject implements Crawler {
         if ( ! isRunning())
             return;
         running = false;
+        signal();
     }
 
     /** Cancella il Crawler per sempre. Dopo questa invocazione il Crawler non
@@ -233,12 +383,16 @@ public class CrawlerObject implements Crawler {
         if (isCancelled()) return;
         running = false;
         cancelled = true;
+        state = State.IDLE;
+        signal();
         if (asyncLoader != null) asyncLoader.shutdown();
         executor.shutdown();
-        futures.clear();
-        urlSubmitted.clear();
+        if (publisher != null) publisher.close();
+        completed.clear();
+        submitted.clear();
+        depths.clear();
         crawlerResults.clear();
-        toLoad.get().clear();
+        toLoad.close(); // la coda su disco della frontiera resta, per riprenderla
         loaded.get().clear();
         errs.get().clear();
         toLoad = null;
@@ -246,9 +400,10 @@ public class CrawlerObject implements Crawler {
         errs = null;
         pageLink = null;
         asyncLoader = null;
-        futures = null;
+        completed = null;
         crawlerResults = null;
-        urlSubmitted = null;
+        submitted = null;
+        depths = null;
     }
 
     /** Ritorna l'insieme di tutti gli URI scaricati, possibilmente vuoto.
@@ -263,14 +418,28 @@ public class CrawlerObject implements Crawler {
 
     /** Ritorna l'insieme, possibilmente vuoto, degli URI che devono essere
      * ancora scaricati. Quando l'esecuzione del crawler termina normalmente
-     * l'insieme  vuoto.
+     * l'insieme  vuoto. Con una directory per la frontiera, gli URI che si trovano su disco non sono compresi.
      * @throws IllegalStateException se il Crawler  cancellato
      * @return l'insieme degli URI ancora da scaricare (mai null) */
 
     @Override
     public Set<URI> getToLoad() {
         except();
-        return toLoad.get();
+        return toLoad.asSet();
+    }
+
+    /** Prepara il salvataggio dello stato del crawler, vedi {@link Frontier#checkpoint()}
+     * @return i segmenti della frontiera su disco da cancellare, con {@link CrawlerObject#release(List)},
+     * dopo aver salvato {@link CrawlerObject#getToLoad()} */
+    List<Path> checkpoint() {
+        Frontier frontier = toLoad;
+        return frontier != null ? frontier.checkpoint() : Collections.emptyList();
+    }
+
+    /** Cancella i segmenti ritornati da {@link CrawlerObject#checkpoint()}, dopo che lo stato  stato salvato
+     * @param segments  i segmenti */
+    void release(List<Path> segments) {
+        FrontierSpill.delete(segments);
     }
 
     /** Ritorna l'insieme, possibilmente vuoto, degli URI che non  stato
@@ -284,6 +453,12 @@ public class CrawlerObject implements Crawler {
         return errs.get();
     }
 
+    /** Ritorna lo stato del thread del crawler, vedi {@link State}. Funziona anche se il Crawler  cancellato.
+     * @return lo stato del crawler */
+    public State getState() {
+        return state;
+    }
+
     @Override
     public boolean isRunning() {
         return running;
@@ -0,0 +1,266 @@
+package wsa.web.objects;
+
+import wsa.web.CrawlSettings;
+import wsa.web.FrontierScore;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** La frontiera di un crawler: gli URI ancora da scaricare, estratti in ordine di {@link FrontierScore}
+ * e, a parità di punteggio, in ordine di inserimento. Aggiunta ed estrazione costano O(log n).
+ * Per ogni URI si ricordano la profondità minima e il numero di link entranti visti finora; quando un
+ * nuovo link cambia il punteggio l'URI è reinserito nella coda con il punteggio nuovo e la copia vecchia
+ * è scartata quando arriva in testa (reinserimento pigro, invece di cercarla nella coda).
+ * Oltre alla coda mantiene un insieme con gli stessi URI, che è quello ritornato da
+ * {@link wsa.web.Crawler#getToLoad()}: un URI tolto dall'insieme dall'esterno viene scartato quando
+ * arriva in testa alla coda.
+ * Se è creata con una directory, in memoria restano al più un numero fissato di URI (la testa della
+ * frontiera) e i nuovi URI oltre quel numero sono scritti in coda su disco da una {@link FrontierSpill}.
+ * Quando la parte in memoria scende sotto la metà vi sono riletti a blocchi, in ordine di arrivo, e da
+ * lì sono estratti per punteggio. Degli URI scritti su disco si ricorda solo l'impronta, in un
+ * {@link SeenSet}, così uno stesso URI non vi è scritto due volte.
+ * La coda su disco è anche lo stato salvato di quella parte della frontiera: i segmenti trovati nella
+ * directory sono ripresi, {@link Frontier#close()} li lascia e chi salva lo stato della parte in memoria
+ * ({@link Frontier#asSet()}) usa {@link Frontier#checkpoint()} e {@link Frontier#release(List)} per
+ * cancellare i segmenti già riletti solo dopo averla salvata. */
+public class Frontier {
+
+    /** Un URI in attesa con i dati da cui dipende il suo punteggio */
+    private static class Slot {
+        final URI uri;
+        int depth;
+        int inLinks;
+        int version; // cambia a ogni reinserimento, le copie con una versione vecchia sono scartate
+
+        Slot(URI uri, int depth) {
+            this.uri = uri;
+            this.depth = depth;
+        }
+    }
+
+    /** Una copia di uno Slot nella coda, con il punteggio che aveva quando è stata inserita */
+    private static class Item implements Comparable<Item> {
+        final Slot slot;
+        final int version;
+        final double score;
+        final long order; // ordine di inserimento, per i punteggi uguali
+
+        Item(Slot slot, double score, long order) {
+            this.slot = slot;
+            this.version = slot.version;
+            this.score = score;
+            this.order = order;
+        }
+
+        @Override
+        public int compareTo(Item o) {
+            int c = Double.compare(o.score, score);
+            return c != 0 ? c : Long.compare(order, o.order);
+        }
+    }
+
+    private final FrontierScore score;
+    private final Set<URI> uris; // gli URI in attesa, letti anche da altri thread
+    private final Map<URI, Slot> slots; // stato degli URI in attesa
+    private final PriorityQueue<Item> queue; // ordine di estrazione, con le copie scadute
+    private long order;
+    private final FrontierSpill spill; // coda su disco o null
+    private final SeenSet spilled; // impronte degli URI scritti su disco, null senza coda su disco
+    private final int memoryLimit; // URI da tenere al massimo in memoria se c'è la coda su disco
+
+    /** COSTRUTTORE, il punteggio è preso da {@link CrawlSettings#getFrontierScore()} */
+    public Frontier() {
+        this(CrawlSettings.getFrontierScore());
+    }
+
+    /** COSTRUTTORE
+     * @param score  il punteggio con cui ordinare gli URI */
+    public Frontier(FrontierScore score) {
+        this(score, null, 0);
+    }
+
+    /** COSTRUTTORE
+     * @param score  il punteggio con cui ordinare gli URI
+     * @param spillDir  la directory in cui scrivere gli URI che non stanno in memoria, o null per tenerli tutti
+     *                  in memoria; gli URI lasciati nella directory da una frontiera precedente sono ripresi
+     * @param memoryLimit  il numero massimo di URI in memoria, 0 per nessun limite */
+    public Frontier(FrontierScore score, Path spillDir, int memoryLimit) {
+        this.score = score;
+        this.memoryLimit = memoryLimit;
+        boolean spilling = spillDir != null && memoryLimit > 0;
+        spilled = spilling ? new SeenSet() : null;
+        spill = spilling ? new FrontierSpill(spillDir, Math.max(memoryLimit / 2, 1024), (uri, depth) -> spilled.add(uri)) : null;
+        uris = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        slots = new HashMap<>();
+        queue = new PriorityQueue<>();
+    }
+
+    /** Aggiunge un seed alla frontiera se non è già presente.
+     * @param uri  un URI da scaricare
+     * @return true se l'URI è stato aggiunto */
+    public boolean add(URI uri) {
+        return add(uri, 0);
+    }
+
+    /** Aggiunge un URI trovato come link alla frontiera se non è già presente, altrimenti ne aggiorna
+     * la profondità minima e il numero di link entranti e, se il punteggio cambia, lo riordina.
+     * @param uri  un URI da scaricare
+     * @param depth  la profondità dell'URI, quella della pagina che lo contiene più uno
+     * @return true se l'URI è stato aggiunto */
+    public synchronized boolean add(URI uri, int depth) {
+        Slot slot = slots.get(uri);
+        if (slot != null && uris.contains(uri)) {
+            double old = score.score(uri, slot.depth, slot.inLinks);
+            slot.inLinks++;
+            slot.depth = Math.min(slot.depth, depth);
+            if (score.score(uri, slot.depth, slot.inLinks) != old) {
+                slot.version++;
+                offer(slot);
+            }
+            return false;
+        }
+        if (spill != null && slots.size() >= memoryLimit && !uris.contains(uri)) {
+            if (!spilled.add(uri)) return false; // già su disco, o già passato da lì
+            try {
+                spill.write(uri, depth);
+                return true;
+            } catch (IOException e) { // resta in memoria
+                e.printStackTrace();
+            }
+        }
+        if (!uris.add(uri)) return false;
+        slot = new Slot(uri, depth);
+        if (depth > 0) slot.inLinks = 1;
+        slots.put(uri, slot);
+        offer(slot);
+        return true;
+    }
+
+    private void offer(Slot slot) {
+        queue.add(new Item(slot, score.score(slot.uri, slot.depth, slot.inLinks), order++));
+        if (queue.size() > 2 * slots.size() + 64) compact();
+    }
+
+    /** Ricostruisce la coda senza le copie scadute, così la sua dimensione resta proporzionale agli URI in attesa */
+    private void compact() {
+        queue.removeIf(item -> item.version != item.slot.version || slots.get(item.slot.uri) != item.slot);
+    }
+
+    /** Estrae il prossimo URI da scaricare, quello con il punteggio più alto.
+     * @return il prossimo URI o null se la frontiera è vuota */
+    public URI poll() {
+        Slot slot = pollSlot();
+        return slot != null ? slot.uri : null;
+    }
+
+    /** Estrae il prossimo URI da scaricare come {@link Frontier#poll()}, insieme alla sua profondità.
+     * @return la coppia URI e profondità, o null se la frontiera è vuota */
+    Map.Entry<URI, Integer> pollWithDepth() {
+        Slot slot = pollSlot();
+        return slot != null ? new AbstractMap.SimpleImmutableEntry<>(slot.uri, slot.depth) : null;
+    }
+
+    private synchronized Slot pollSlot() {
+        if (spill != null && spill.size() > 0 && slots.size() <= memoryLimit / 2)
+            spill.read(memoryLimit - slots.size(), this::refill);
+        Item item;
+        while ((item = queue.poll()) != null) {
+            Slot slot = item.slot;
+            if (item.version != slot.version || slots.get(slot.uri) != slot) continue; // copia scaduta
+            slots.remove(slot.uri);
+            if (uris.remove(slot.uri)) return slot;
+        }
+        return null;
+    }
+
+    /** Rimette in memoria un URI riletto dal disco */
+    private void refill(URI uri, int depth) {
+        Slot slot = slots.get(uri);
+        if (slot != null && uris.contains(uri)) { // già in memoria, conta come un link in più
+            slot.inLinks++;
+            slot.depth = Math.min(slot.depth, depth);
+            slot.version++;
+        } else {
+            if (!uris.add(uri)) return;
+            slot = new Slot(uri, depth);
+            if (depth > 0) slot.inLinks = 1;
+            slots.put(uri, slot);
+        }
+        offer(slot);
+    }
+
+    /** @param uri  un URI
+     * @return true se l'URI è in attesa di essere scaricato e si trova in memoria */
+    public boolean contains(URI uri) {
+        return uris.contains(uri);
+    }
+
+    /** @return true se non ci sono URI da scaricare */
+    public synchronized boolean isEmpty() {
+        return uris.isEmpty() && (spill == null || spill.size() == 0);
+    }
+
+    /** Svuota la frontiera, cancellando anche la coda su disco */
+    public synchronized void clear() {
+        if (spill != null) {
+            spill.clear();
+            spilled.clear();
+        }
+        uris.clear();
+        slots.clear();
+        queue.clear();
+    }
+
+    /** Svuota la parte in memoria della frontiera e chiude la coda su disco senza cancellarla, così
+     * una frontiera creata con la stessa directory la riprende */
+    public synchronized void close() {
+        if (spill != null) {
+            spill.close();
+            spilled.clear();
+        }
+        uris.clear();
+        slots.clear();
+        queue.clear();
+    }
+
+    /** Prepara il salvataggio dello stato: scrive sul disco gli URI della coda su disco ancora nel buffer e
+     * ritorna i segmenti già riletti, che vanno cancellati con {@link Frontier#release(List)} dopo aver
+     * salvato la parte in memoria ({@link Frontier#asSet()}), dove ora si trovano i loro URI.
+     * @return i segmenti da cancellare dopo il salvataggio, vuota senza coda su disco */
+    public synchronized List<Path> checkpoint() {
+        return spill != null ? spill.checkpoint() : Collections.emptyList();
+    }
+
+    /** Cancella i segmenti ritornati da {@link Frontier#checkpoint()}, dopo che lo stato è stato salvato
+     * @param segments  i segmenti */
+    public void release(List<Path> segments) {
+        FrontierSpill.delete(segments);
+    }
+
+    /** Cancella la coda su disco lasciata in una directory da una frontiera precedente, per iniziare da capo
+     * @param spillDir  la directory della coda su disco */
+    public static void discard(Path spillDir) {
+        FrontierSpill.deleteSegments(spillDir);
+    }
+
+    /** @return il numero di URI ancora da scaricare che si trovano su disco */
+    public synchronized long spilled() {
+        return spill != null ? spill.size() : 0;
+    }
+
+    /** @return l'insieme (serializzabile) degli URI ancora da scaricare che si trovano in memoria. Gli URI
+     * su disco, {@link Frontier#spilled()}, non sono compresi: non vengono mai riletti tutti insieme in
+     * memoria e il loro stato salvato sono i segmenti stessi */
+    public Set<URI> asSet() {
+        return uris;
+    }
+}
@@ -0,0 +1,254 @@
+package wsa.web.objects;
+
+import java.io.*;
+import java.net.URI;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.function.ObjIntConsumer;
+
+/** La coda su disco di una {@link Frontier}: gli URI che non stanno in memoria sono scritti in ordine
+ * in file segmento {@code frontier-<n>.seg} di una directory e riletti a blocchi, dal segmento più
+ * vecchio, quando la parte in memoria si svuota. Scritture e letture sono sequenziali e bufferizzate.
+ * Un segmento è chiuso dopo un numero fissato di URI. I segmenti sono lo stato salvato della coda: quelli
+ * trovati nella directory sono ripresi e uno riletto tutto è cancellato solo al
+ * {@link FrontierSpill#checkpoint()} successivo, quando i suoi URI sono ormai nello stato salvato altrove.
+ * Non è thread-safe, la usa la Frontier con il proprio lock. */
+class FrontierSpill {
+
+    private static final String PREFIX = "frontier-", SUFFIX = ".seg";
+    private static final String POSITION = "frontier.pos"; // segmento in lettura e URI riletti all'ultimo checkpoint
+
+    private final Path dir;
+    private final int segmentSize; // URI per segmento
+    private final ArrayDeque<Path> closed = new ArrayDeque<>(); // segmenti completi da rileggere, dal più vecchio
+    private final List<Path> consumed = new ArrayList<>(); // segmenti riletti, da cancellare al prossimo checkpoint
+    private int next; // numero del prossimo segmento
+    private Path writing; // segmento in scrittura o null
+    private DataOutputStream out;
+    private int written; // URI scritti nel segmento in scrittura
+    private Path reading; // segmento in lettura o null
+    private DataInputStream in;
+    private int read; // URI già riletti dal segmento in lettura
+    private Path resumed; // segmento ripreso che era in lettura, o null
+    private int skip; // URI di resumed già riletti prima dell'ultimo checkpoint, da saltare
+    private long size; // URI scritti e non ancora riletti
+
+    /** COSTRUTTORE, riprende i segmenti lasciati nella directory da un'esecuzione precedente, che saranno
+     * riletti per primi, saltando gli URI che all'ultimo checkpoint erano già stati riletti.
+     * La directory è creata solo quando serve.
+     * @param dir  la directory dei segmenti
+     * @param segmentSize  il numero di URI di un segmento
+     * @param existing  riceve ogni URI dei segmenti ripresi, con la sua profondità */
+    FrontierSpill(Path dir, int segmentSize, ObjIntConsumer<URI> existing) {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        TreeMap<Integer, Path> segments = new TreeMap<>();
+        if (Files.isDirectory(dir)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+                for (Path segment : stream) {
+                    String name = segment.getFileName().toString();
+                    try {
+                        segments.put(Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length())), segment);
+                    } catch (NumberFormatException ignored) {}
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            try (DataInputStream pos = new DataInputStream(Files.newInputStream(dir.resolve(POSITION)))) {
+                resumed = dir.resolve(pos.readUTF());
+                skip = pos.readInt();
+            } catch (IOException e) { // nessun checkpoint, si riprende tutto
+                resumed = null;
+            }
+        }
+        for (Path segment : segments.values()) {
+            int[] seen = {0};
+            int skipped = segment.equals(resumed) ? skip : 0;
+            try {
+                scan(segment, (uri, depth) -> {
+                    if (seen[0]++ < skipped) return;
+                    size++;
+                    existing.accept(uri, depth);
+                });
+            } catch (IOException | IllegalArgumentException e) { // si riprendono gli URI letti prima dell'errore
+                e.printStackTrace();
+            }
+            closed.add(segment);
+        }
+        if (!segments.isEmpty()) next = segments.lastKey() + 1;
+    }
+
+    /** Scrive un URI in coda.
+     * @param uri  l'URI
+     * @param depth  la sua profondità
+     * @throws IOException se la scrittura fallisce */
+    void write(URI uri, int depth) throws IOException {
+        if (out == null) {
+            Files.createDirectories(dir);
+            writing = dir.resolve(PREFIX + (next++) + SUFFIX);
+            out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(writing), 1 << 16));
+            written = 0;
+        }
+        out.writeUTF(uri.toString());
+        out.writeInt(depth);
+        written++;
+        size++;
+        if (written >= segmentSize) closeWriting();
+    }
+
+    /** Rilegge un blocco di URI, nell'ordine in cui sono stati scritti.
+     * @param max  il numero massimo di URI da rileggere
+     * @param sink  riceve ogni URI con la sua profondità
+     * @return il numero di URI riletti */
+    int read(int max, ObjIntConsumer<URI> sink) {
+        int n = 0;
+        while (n < max && size > 0) {
+            try {
+                if (in == null) {
+                    if (closed.isEmpty()) closeWriting(); // si rilegge anche il segmento ancora aperto
+                    reading = closed.poll();
+                    if (reading == null) { // gli URI mancanti erano in un segmento rovinato
+                        size = 0;
+                        break;
+                    }
+                    in = new DataInputStream(new BufferedInputStream(Files.newInputStream(reading), 1 << 16));
+                    read = 0;
+                }
+                URI uri;
+                int depth;
+                try {
+                    uri = URI.create(in.readUTF());
+                    depth = in.readInt();
+                } catch (EOFException e) { // segmento finito
+                    closeReading();
+                    continue;
+                }
+                if (read++ < skip && reading.equals(resumed)) continue; // era già stato riletto
+                size--;
+                n++;
+                sink.accept(uri, depth);
+            } catch (IOException | IllegalArgumentException e) { // segmento rovinato, i suoi URI sono persi
+                e.printStackTrace();
+                closeReading();
+            }
+        }
+        if (size == 0) closeReading(); // riletto tutto, il segmento può essere cancellato subito
+        return n;
+    }
+
+    /** Scrive sul disco gli URI ancora nel buffer e la posizione nel segmento in lettura, e ritorna i
+     * segmenti riletti dall'ultimo checkpoint, da cancellare con {@link FrontierSpill#delete(List)} dopo aver
+     * salvato lo stato della parte in memoria.
+     * @return i segmenti riletti */
+    List<Path> checkpoint() {
+        try {
+            if (out != null) out.flush();
+            if (reading != null) {
+                try (DataOutputStream pos = new DataOutputStream(Files.newOutputStream(dir.resolve(POSITION)))) {
+                    pos.writeUTF(reading.getFileName().toString());
+                    pos.writeInt(read);
+                }
+            } else {
+                Files.deleteIfExists(dir.resolve(POSITION));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        List<Path> done = new ArrayList<>(consumed);
+        consumed.clear();
+        return done;
+    }
+
+    /** Cancella dei segmenti riletti
+     * @param segments  i segmenti, ritornati da {@link FrontierSpill#checkpoint()} */
+    static void delete(List<Path> segments) {
+        for (Path segment : segments) {
+            try {
+                Files.deleteIfExists(segment);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /** Chiude i file aperti lasciando tutti i segmenti, anche quelli già riletti, nella directory */
+    void close() {
+        try {
+            if (out != null) out.close();
+        } catch (IOException ignored) {}
+        out = null;
+        writing = null;
+        closeReading();
+        closed.clear();
+        consumed.clear();
+        size = 0;
+    }
+
+    /** @return il numero di URI in coda */
+    long size() {
+        return size;
+    }
+
+    /** Chiude i file aperti e cancella tutti i segmenti */
+    void clear() {
+        close();
+        deleteSegments(dir);
+    }
+
+    private static void scan(Path segment, ObjIntConsumer<URI> sink) throws IOException {
+        try (DataInputStream data = new DataInputStream(new BufferedInputStream(Files.newInputStream(segment), 1 << 16))) {
+            while (true) {
+                String uri;
+                int depth;
+                try {
+                    uri = data.readUTF();
+                    depth = data.readInt();
+                } catch (EOFException e) {
+                    return;
+                }
+                sink.accept(URI.create(uri), depth);
+            }
+        }
+    }
+
+    private void closeWriting() throws IOException {
+        if (out == null) return;
+        out.close();
+        out = null;
+        closed.add(writing);
+        writing = null;
+    }
+
+    private void closeReading() {
+        try {
+            if (in != null) in.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (reading != null) consumed.add(reading);
+        in = null;
+        reading = null;
+    }
+
+    /** Cancella tutti i segmenti di una directory
+     * @param dir  la directory dei segmenti */
+    static void deleteSegments(Path dir) {
+        if (!Files.isDirectory(dir)) return;
+        try {
+            Files.deleteIfExists(dir.resolve(POSITION));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        try (DirectoryStream<Path> segments = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+            for (Path segment : segments)
+                Files.deleteIfExists(segment);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
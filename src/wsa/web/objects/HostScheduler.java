@@ -0,0 +1,207 @@
+package wsa.web.objects;
+
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/** Scheduler "cortese" che sta davanti al pool di un {@link AsyncLoaderObject}. Tiene una coda per ogni
+ * host e passa i download all'executor a turno (round-robin) tra gli host, rispettando per ognuno un
+ * limite di richieste al secondo (token bucket) e un numero massimo di download contemporanei.
+ * Così un host lento non occupa tutti i thread del pool e uno veloce non viene sovraccaricato. */
+public class HostScheduler {
+
+    /** Un download in coda e chi avvisare se non verrà eseguito */
+    private static class Job {
+        final Runnable task;
+        final Consumer<Exception> discarded;
+
+        Job(Runnable task, Consumer<Exception> discarded) {
+            this.task = task;
+            this.discarded = discarded;
+        }
+    }
+
+    /** Stato di un host: la sua coda, i gettoni disponibili e i download in corso */
+    private static class Host {
+        final String name;
+        final ArrayDeque<Job> queue = new ArrayDeque<>();
+        double tokens;
+        long lastRefill;
+        int active;
+
+        Host(String name, double tokens) {
+            this.name = name;
+            this.tokens = tokens;
+            lastRefill = System.nanoTime();
+        }
+    }
+
+    private final Executor executor;
+    private final double rate; // richieste al secondo per host, <= 0 senza limite
+    private final double burst; // capacità del bucket
+    private final int maxPerHost; // download contemporanei per host, <= 0 senza limite
+
+    private final ReentrantLock lock;
+    private final Condition changed; // segnalata quando arriva un download o ne finisce uno
+    private final Map<String, Host> hosts;
+    private final ArrayDeque<Host> turn; // host con lavoro, nell'ordine del round-robin
+    private final Thread dispatcher;
+    private boolean shutdown;
+
+    /** COSTRUTTORE
+     * @param executor  executor su cui eseguire i download
+     * @param rate  richieste al secondo consentite per host, 0 per nessun limite
+     * @param maxPerHost  numero massimo di download contemporanei per host, 0 per nessun limite */
+    public HostScheduler(Executor executor, double rate, int maxPerHost) {
+        this.executor = executor;
+        this.rate = rate;
+        this.burst = Math.max(1, rate);
+        this.maxPerHost = maxPerHost;
+        lock = new ReentrantLock();
+        changed = lock.newCondition();
+        hosts = new HashMap<>();
+        turn = new ArrayDeque<>();
+        dispatcher = new Thread(this::dispatch, "HostScheduler");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    /** Accoda il download di un URL nella coda del suo host.
+     * @param url  URL della pagina, serve solo a ricavare l'host
+     * @param task  il download da eseguire
+     * @param discarded  invocato, al posto di task, se il download non sarà eseguito: con una
+     *                   {@link CancellationException} se lo scheduler viene chiuso mentre è in coda,
+     *                   con una {@link RejectedExecutionException} se l'executor lo rifiuta
+     * @throws IllegalStateException se lo scheduler è chiuso */
+    public void submit(URL url, Runnable task, Consumer<Exception> discarded) {
+        String name = url.getHost().toLowerCase(Locale.ROOT) + ":" + url.getPort();
+        lock.lock();
+        try {
+            if (shutdown) throw new IllegalStateException();
+            Host host = hosts.get(name);
+            if (host == null) {
+                host = new Host(name, burst);
+                hosts.put(name, host);
+                turn.add(host);
+            }
+            host.queue.add(new Job(task, discarded));
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Chiude lo scheduler, i download ancora in coda non verranno eseguiti e per ognuno è invocato
+     * discarded con una {@link CancellationException} */
+    public void shutdown() {
+        List<Job> dropped = new ArrayList<>();
+        lock.lock();
+        try {
+            shutdown = true;
+            for (Host host : hosts.values())
+                dropped.addAll(host.queue);
+            hosts.clear();
+            turn.clear();
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+        for (Job job : dropped)
+            job.discarded.accept(new CancellationException("Scheduler chiuso"));
+    }
+
+    /** Ciclo del thread dispatcher: a ogni giro dà al più un download a ogni host che può partire,
+     * poi aspetta che arrivi lavoro, che finisca un download o che maturi il prossimo gettone. */
+    private void dispatch() {
+        List<Job> rejected = new ArrayList<>();
+        lock.lock();
+        try {
+            while (!shutdown) {
+                long wait = Long.MAX_VALUE;
+                boolean dispatched = false;
+                for (int i = turn.size(); i > 0; i--) {
+                    Host host = turn.poll();
+                    if (host.queue.isEmpty()) {
+                        if (idle(host)) hosts.remove(host.name);
+                        else turn.add(host);
+                        continue;
+                    }
+                    turn.add(host);
+                    if (maxPerHost > 0 && host.active >= maxPerHost) continue;
+                    refill(host);
+                    if (rate > 0 && host.tokens < 1) {
+                        wait = Math.min(wait, (long) ((1 - host.tokens) / rate * 1e9));
+                        continue;
+                    }
+                    host.tokens--;
+                    host.active++;
+                    Job job = host.queue.poll();
+                    try {
+                        executor.execute(() -> {
+                            try {
+                                job.task.run();
+                            } finally {
+                                release(host);
+                            }
+                        });
+                        dispatched = true;
+                    } catch (RejectedExecutionException e) {
+                        host.active--;
+                        rejected.add(job);
+                    }
+                }
+                if (!rejected.isEmpty()) { // avvisati senza il lock, possono sottomettere altro
+                    lock.unlock();
+                    try {
+                        for (Job job : rejected)
+                            job.discarded.accept(new RejectedExecutionException("Download rifiutato dall'executor"));
+                    } finally {
+                        rejected.clear();
+                        lock.lock();
+                    }
+                }
+                if (dispatched) continue;
+                if (wait == Long.MAX_VALUE) changed.await();
+                else changed.awaitNanos(Math.max(wait, TimeUnit.MILLISECONDS.toNanos(1)));
+            }
+        } catch (InterruptedException ignored) {
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void refill(Host host) {
+        if (rate <= 0) return;
+        long now = System.nanoTime();
+        host.tokens = Math.min(burst, host.tokens + (now - host.lastRefill) / 1e9 * rate);
+        host.lastRefill = now;
+    }
+
+    /** Un host si può dimenticare solo quando non ha lavoro e il suo bucket è di nuovo pieno,
+     * altrimenti chi lo ricrea riparte con tutti i gettoni e supera il limite di richieste */
+    private boolean idle(Host host) {
+        if (!host.queue.isEmpty() || host.active > 0) return false;
+        refill(host);
+        return rate <= 0 || host.tokens >= burst;
+    }
+
+    private void release(Host host) {
+        lock.lock();
+        try {
+            host.active--;
+            if (hosts.get(host.name) == host && idle(host)) {
+                hosts.remove(host.name);
+                turn.remove(host);
+            }
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
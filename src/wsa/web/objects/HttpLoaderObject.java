@@ -0,0 +1,367 @@
+package wsa.web.objects;
+
+import wsa.web.ContentKind;
+import wsa.web.CrawlSettings;
+import wsa.web.LoadResult;
+import wsa.web.Loader;
+import wsa.web.html.HtmlParsed;
+import wsa.web.html.LinksParsed;
+import wsa.web.html.Parsed;
+
+import java.io.*;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/** Oggetto Loader concreto che non usa la {@link javafx.scene.web.WebEngine}.
+ * La pagina è scaricata con un {@link HttpClient} non bloccante e i byte ricevuti sono passati man mano
+ * a un {@link HtmlParsed} nel thread che invoca {@link HttpLoaderObject#load(URL)}, senza mai passare
+ * per il Thread JavaFX e senza creare un {@link org.w3c.dom.Document}.
+ * Non esegue JavaScript, quindi è adatto a siti statici e può essere usato su macchine senza display.
+ * Le pagine sono chieste compresse con gzip o deflate e decompresse mentre il parser le legge.
+ * Il parser legge al massimo {@link CrawlSettings#getMaxPageSize()} byte decompressi, il resto della pagina
+ * non è scaricato e il risultato è segnato come troncato; così la memoria usata da ogni download è limitata.
+ * Si seleziona con {@code WebFactory.setLoaderFactory(HttpLoaderObject::new)}.
+ * Se {@link CrawlSettings#isLinksOnly()} e la pagina è salvata in una {@link PageCache} ritorna un
+ * {@link LinksParsed} invece dell'albero completo; se poi l'albero serve, la pagina è riletta dalla cache,
+ * mai scaricata di nuovo. Senza cache ritorna sempre l'albero completo.
+ * Se per il dominio della pagina è registrata una {@link PageCache} la pagina è letta da lì quando c'è,
+ * altrimenti il corpo scaricato vi viene salvato con gli header ETag e Last-Modified. Una pagina della cache non più
+ * valida è richiesta con una GET condizionale e, se il server risponde 304, è analizzata dalla cache. */
+public class HttpLoaderObject implements Loader {
+
+    /** Client condiviso da tutti i loader: gestisce da solo le connessioni ed è thread-safe */
+    private static final HttpClient client = HttpClient.newBuilder()
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .connectTimeout(Duration.ofMillis(5000))
+            .build();
+
+    private final boolean linksOnly;
+    private final boolean prefilter; // se classificare la risposta dagli header prima di leggerne il corpo
+    private final long maxPageSize; // dimensione massima di una pagina, 0 per nessun limite
+
+    /** COSTRUTTORE */
+    public HttpLoaderObject() {
+        linksOnly = CrawlSettings.isLinksOnly();
+        prefilter = CrawlSettings.isPrefilter();
+        maxPageSize = CrawlSettings.getMaxPageSize();
+    }
+
+    /** Ritorna il risultato del tentativo di scaricare la pagina specificata.
+     * La richiesta è inviata in modo asincrono dal client, il thread chiamante aspetta solo gli header
+     * della risposta e poi crea l'albero di parsing leggendo il corpo mentre arriva.
+     * Se dagli header Content-Type e Content-Length risulta che il contenuto non è HTML o è più grande
+     * della dimensione massima, il corpo non è letto e si ritorna un risultato con il relativo {@link ContentKind}.
+     * @param url  l'URL di una pagina web
+     * @return il risultato del tentativo di scaricare la pagina */
+    @Override
+    public LoadResult load(URL url) {
+        try {
+            Parsed parsed;
+            String contentType;
+            BoundedInputStream bounded;
+            PageCache.Entry cached = PageCache.find(url);
+            if (cached != null && cached.isFresh()) {
+                try (Reader reader = cached.reader()) {
+                    return new LoadResult(url, parse(url, reader, cached.stored), null);
+                } catch (IOException ignored) { // file della cache rovinato, si scarica la pagina
+                    cached = null;
+                }
+            }
+            if (isHttp(url)) {
+                HttpResponse<InputStream> response = client.sendAsync(request(url, "GET",
+                        cached == null ? Collections.emptyMap() : cached.conditionalHeaders()),
+                        HttpResponse.BodyHandlers.ofInputStream()).join();
+                try (InputStream in = decode(response.body(), response.headers())) {
+                    if (response.statusCode() == 304 && cached != null) { // non modificata, si usa la cache
+                        PageCache.revalidated(cached, validators(response.headers()));
+                        try (Reader reader = cached.reader()) {
+                            return new LoadResult(url, parse(url, reader, cached.stored), null);
+                        }
+                    }
+                    if (response.statusCode() >= 400)
+                        return new LoadResult(url, null, new Exception("Download fallito! HTTP " + response.statusCode()));
+                    contentType = response.headers().firstValue("Content-Type").orElse(null);
+                    ContentKind kind = classify(contentType, response.headers().firstValueAsLong("Content-Length").orElse(-1));
+                    if (kind != ContentKind.HTML)
+                        return ContentPrefilter.skipped(url, kind, contentType); // il corpo non è letto
+                    bounded = new BoundedInputStream(in, maxPageSize);
+                    long started = System.currentTimeMillis();
+                    PageCache.PageWriter cache = response.statusCode() != 200 ? null
+                            : PageCache.writer(url, validators(response.headers()));
+                    try {
+                        Reader reader = new InputStreamReader(cache == null ? bounded : tee(bounded, cache),
+                                charset(contentType));
+                        parsed = cache == null ? HtmlParsed.parse(reader) : parse(url, reader, started);
+                        if (cache != null && !bounded.isTruncated()) {
+                            try {
+                                cache.commit();
+                            } catch (IOException ignored) {} // la pagina non è salvata, non è un errore del download
+                        }
+                    } finally {
+                        if (cache != null) cache.close();
+                    }
+                }
+            } else {
+                // file: e altri protocolli non supportati da HttpClient
+                URLConnection connection = url.openConnection();
+                try (InputStream in = connection.getInputStream()) {
+                    contentType = connection.getContentType();
+                    ContentKind kind = classify(contentType, connection.getContentLengthLong());
+                    if (kind != ContentKind.HTML)
+                        return ContentPrefilter.skipped(url, kind, contentType);
+                    bounded = new BoundedInputStream(in, maxPageSize);
+                    parsed = HtmlParsed.parse(new InputStreamReader(bounded, charset(contentType)));
+                }
+            }
+            return new LoadResult(url, parsed, null, ContentKind.HTML, contentType, bounded.isTruncated());
+        } catch (Exception ex) {
+            return new LoadResult(url, null, new Exception("Download fallito!", ex));
+        }
+    }
+
+    /** Controlla l'{@link URL} con una richiesta HEAD, senza scaricare il corpo della pagina.
+     * @param url  un URL
+     * @return null se l'URL è scaricabile senza errori, altrimenti
+     * l'eccezione */
+    @Override
+    public Exception check(URL url) {
+        try {
+            if (!isHttp(url)) {
+                url.openConnection().connect();
+                return null;
+            }
+            HttpResponse<Void> response = client.send(request(url, "HEAD", Collections.emptyMap()),
+                    HttpResponse.BodyHandlers.discarding());
+            if (response.statusCode() >= 400)
+                return new Exception("HTTP " + response.statusCode());
+            return null;
+        } catch (Exception ex) {
+            return ex;
+        }
+    }
+
+    /** Scarica il testo di una pagina http o https, usato da {@link LoaderObject} quando deve passare lui
+     * la pagina alla WebEngine. Il corpo è decompresso mentre arriva, ma il testo è copiato tutto in una
+     * String perché {@link javafx.scene.web.WebEngine#loadContent(String)} accetta solo quella; la copia è
+     * al più di maxSize byte decompressi.
+     * @param url  l'URL della pagina
+     * @param maxSize  il numero massimo di byte decompressi da leggere, 0 per nessun limite
+     * @param truncated  impostato a true se la pagina è stata troncata
+     * @param validators  riceve ETag e Last-Modified della risposta, da salvare nella cache con la pagina
+     * @return il testo della pagina
+     * @throws Exception se il download fallisce */
+    static String text(URL url, long maxSize, AtomicBoolean truncated, Map<String, String> validators) throws Exception {
+        HttpResponse<InputStream> response = client.sendAsync(request(url, "GET", Collections.emptyMap()),
+                HttpResponse.BodyHandlers.ofInputStream()).join();
+        try (InputStream in = decode(response.body(), response.headers())) {
+            if (response.statusCode() >= 400)
+                throw new Exception("HTTP " + response.statusCode());
+            entityTags(response.headers(), validators);
+            Charset charset = charset(response.headers().firstValue("Content-Type").orElse(null));
+            StringBuilder text = new StringBuilder();
+            BoundedInputStream bounded = new BoundedInputStream(in, maxSize);
+            Reader reader = new InputStreamReader(bounded, charset);
+            char[] buf = new char[8192];
+            for (int n; (n = reader.read(buf)) != -1; )
+                text.append(buf, 0, n);
+            truncated.set(bounded.isTruncated());
+            return text.toString();
+        }
+    }
+
+    /** @return il tipo del contenuto secondo gli header, sempre HTML se il prefiltro non è attivo */
+    private ContentKind classify(String contentType, long length) {
+        return prefilter ? ContentPrefilter.byHeaders(contentType, length, maxPageSize) : ContentKind.HTML;
+    }
+
+    /** Classifica il contenuto di un URL con una richiesta HEAD, usato da {@link LoaderObject} prima di
+     * occupare una WebEngine. Se il server non accetta la HEAD si leggono gli header di una GET.
+     * @param url  l'URL
+     * @param maxSize  la dimensione massima di una pagina, 0 per nessun limite
+     * @return il risultato per un contenuto da non scaricare, null se è HTML o non si può sapere */
+    static LoadResult probe(URL url, long maxSize) {
+        if (!isHttp(url)) return null;
+        try {
+            HttpResponse<?> response = headers(url);
+            if (response.statusCode() >= 300) return null; // se ne occupa la WebEngine
+            String contentType = response.headers().firstValue("Content-Type").orElse(null);
+            ContentKind kind = ContentPrefilter.byHeaders(contentType,
+                    response.headers().firstValueAsLong("Content-Length").orElse(-1), maxSize);
+            return kind == ContentKind.HTML ? null : ContentPrefilter.skipped(url, kind, contentType);
+        } catch (Exception ex) {
+            return null;
+        }
+    }
+
+    /** Chiede gli header di un URL con una richiesta HEAD. Se il server non la accetta (405 o 501) o la
+     * richiesta fallisce, come fanno alcuni server, si manda una GET e se ne chiude il corpo senza leggerlo.
+     * @param url  un URL http o https
+     * @return la risposta, senza corpo
+     * @throws Exception se anche la GET fallisce */
+    private static HttpResponse<?> headers(URL url) throws Exception {
+        try {
+            HttpResponse<Void> head = client.send(request(url, "HEAD", Collections.emptyMap()),
+                    HttpResponse.BodyHandlers.discarding());
+            if (head.statusCode() != 405 && head.statusCode() != 501) return head;
+        } catch (IOException ignored) {} // si riprova con la GET
+        HttpResponse<InputStream> get = client.send(request(url, "GET", Collections.emptyMap()),
+                HttpResponse.BodyHandlers.ofInputStream());
+        get.body().close(); // servono solo gli header
+        return get;
+    }
+
+    /** Controlla con una HEAD condizionale se una pagina della cache non più valida è cambiata sul server,
+     * usato da {@link LoaderObject} che scarica le pagine con la WebEngine. Se il server risponde 304
+     * la pagina nella cache è resa di nuovo valida.
+     * @param url  l'URL della pagina
+     * @param cached  la pagina nella cache
+     * @return true se la pagina non è cambiata e si può usare quella della cache */
+    static boolean notModified(URL url, PageCache.Entry cached) {
+        if (!isHttp(url)) return false;
+        try {
+            HttpResponse<Void> response = client.send(request(url, "HEAD", cached.conditionalHeaders()),
+                    HttpResponse.BodyHandlers.discarding());
+            if (response.statusCode() != 304) return false;
+            PageCache.revalidated(cached, validators(response.headers()));
+            return true;
+        } catch (Exception ex) {
+            return false;
+        }
+    }
+
+    /** Copia nella cache i byte del corpo mentre il parser li legge. Se la scrittura nella cache fallisce
+     * la pagina non viene salvata ma la lettura continua. */
+    private static InputStream tee(InputStream in, PageCache.PageWriter cache) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    try {
+                        cache.write(b);
+                    } catch (IOException e) {
+                        cache.close();
+                    }
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0) {
+                    try {
+                        cache.write(b, off, n);
+                    } catch (IOException e) {
+                        cache.close();
+                    }
+                }
+                return n;
+            }
+        };
+    }
+
+    /** Decomprime il corpo della risposta secondo l'header Content-Encoding mentre viene letto, senza
+     * copiarlo prima in memoria e con l'Inflater e il buffer del thread ({@link InflatingInputStream}).
+     * Brotli non è chiesto perché il JDK non lo supporta.
+     * @param in  il corpo della risposta
+     * @param headers  gli header della risposta
+     * @return il corpo decompresso
+     * @throws IOException se la codifica non è supportata o il corpo non è valido */
+    static InputStream decode(InputStream in, HttpHeaders headers) throws IOException {
+        String encoding = headers.firstValue("Content-Encoding").orElse("").trim().toLowerCase(Locale.ROOT);
+        switch (encoding) {
+            case "":
+            case "identity":
+                return in;
+            case "gzip":
+            case "x-gzip":
+                return new InflatingInputStream(in, InflatingInputStream.Format.GZIP);
+            case "deflate":
+                return new InflatingInputStream(in, InflatingInputStream.Format.DEFLATE);
+            default:
+                in.close();
+                throw new IOException("Content-Encoding non supportato: " + encoding);
+        }
+    }
+
+    /** @return gli header da salvare nella cache con la pagina: Content-Type, ETag e Last-Modified */
+    private static Map<String, String> validators(HttpHeaders headers) {
+        Map<String, String> map = new HashMap<>();
+        headers.firstValue("content-type").ifPresent(v -> map.put("content-type", v));
+        entityTags(headers, map);
+        return map;
+    }
+
+    /** Copia ETag e Last-Modified, se ci sono, con i nomi in minuscolo */
+    private static void entityTags(HttpHeaders headers, Map<String, String> map) {
+        for (String name : new String[] {"etag", "last-modified"})
+            headers.firstValue(name).ifPresent(v -> map.put(name, v));
+    }
+
+    /** Analizza una pagina che si trova, o che si sta salvando, nella cache
+     * @param url  l'URL della pagina
+     * @param reader  il testo della pagina
+     * @param stored  il momento in cui la pagina è stata salvata nella cache, o in cui si è iniziato a salvarla
+     * @return un {@link LinksParsed} che rilegge la pagina dalla cache se {@link CrawlSettings#isLinksOnly()},
+     * altrimenti l'albero completo */
+    private Parsed parse(URL url, Reader reader, long stored) throws IOException {
+        return linksOnly ? LinksParsed.parse(reader, () -> reopen(url, stored)) : HtmlParsed.parse(reader);
+    }
+
+    /** Riapre dalla cache il testo di una pagina già analizzata da un {@link LinksParsed}. Non la scarica
+     * mai di nuovo: chi costruisce l'albero può essere il Thread JavaFX e una nuova copia potrebbe essere
+     * diversa da quella da cui sono stati presi i link.
+     * @param stored  il momento del salvataggio della copia analizzata, una copia più vecchia non va bene
+     * @throws IllegalStateException se la pagina non è più nella cache, ad esempio perché troncata o eliminata */
+    private static Reader reopen(URL url, long stored) throws IOException {
+        PageCache.Entry cached = PageCache.find(url);
+        if (cached == null || cached.stored < stored)
+            throw new IllegalStateException("La pagina non è più nella cache: " + url);
+        return cached.reader();
+    }
+
+    static boolean isHttp(URL url) {
+        return url.getProtocol().equalsIgnoreCase("http") || url.getProtocol().equalsIgnoreCase("https");
+    }
+
+    private static HttpRequest request(URL url, String method, Map<String, String> headers) throws Exception {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(url.toURI())
+                .method(method, HttpRequest.BodyPublishers.noBody())
+                .header("User-Agent", "Mozilla/5.0")
+                .header("Accept", "text/html;q=1.0,*;q=0")
+                .header("Accept-Encoding", "gzip, deflate")
+                .timeout(Duration.ofMillis(10000));
+        headers.forEach(builder::header);
+        return builder.build();
+    }
+
+    /** Ricava il charset dall'header Content-Type, UTF-8 se manca o non è valido
+     * @param contentType valore dell'header Content-Type o null
+     * @return il charset da usare per decodificare la pagina */
+    static Charset charset(String contentType) {
+        if (contentType != null) {
+            for (String param : contentType.split(";")) {
+                param = param.trim();
+                if (param.toLowerCase(Locale.ROOT).startsWith("charset=")) {
+                    try {
+                        return Charset.forName(param.substring(8).replace("\"", "").trim());
+                    } catch (Exception ignored) {}
+                }
+            }
+        }
+        return StandardCharsets.UTF_8;
+    }
+}
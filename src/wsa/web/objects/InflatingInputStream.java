@@ -0,0 +1,228 @@
+package wsa.web.objects;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/** Decomprime mentre viene letto un corpo gzip, zlib o deflate senza intestazione. Al posto di
+ * {@link java.util.zip.GZIPInputStream} e {@link java.util.zip.InflaterInputStream}, che per ogni risposta
+ * creano un nuovo {@link Inflater} e un nuovo buffer, usa quelli del thread che lo crea, restituiti
+ * alla chiusura come il buffer di {@link wsa.web.html.HtmlTokenizer}. Intestazione e codici di controllo
+ * (CRC32 per gzip, Adler-32 per zlib) sono verificati. Un corpo vuoto (risposta 304 o HEAD) è uno stream vuoto. */
+class InflatingInputStream extends FilterInputStream {
+
+    /** Il formato del corpo compresso */
+    enum Format {
+        /** gzip (RFC 1952), anche con più membri concatenati */
+        GZIP,
+        /** "deflate" dell'HTTP: zlib (RFC 1950) o, come mandano alcuni server, deflate senza intestazione
+         * (RFC 1951), riconosciuti dai primi due byte */
+        DEFLATE
+    }
+
+    /** Inflater e buffer riusati: uno per thread, preso dal costruttore e restituito da close */
+    private static final ThreadLocal<Inflater> inflaters = new ThreadLocal<>();
+    private static final ThreadLocal<byte[]> buffers = new ThreadLocal<>();
+
+    private final Format format;
+    private Inflater inf;
+    private byte[] buf; // byte compressi letti dallo stream sottostante
+    private int pos, limit; // byte di buf non ancora passati all'Inflater
+    private Checksum check; // CRC32 o Adler-32 dei byte decompressi, null senza intestazione
+    private boolean eof, closed;
+    private final byte[] single = new byte[1];
+
+    /** COSTRUTTORE, legge l'intestazione del formato
+     * @param in  il corpo compresso
+     * @param format  il formato
+     * @throws IOException se l'intestazione non è valida o la lettura fallisce */
+    InflatingInputStream(InputStream in, Format format) throws IOException {
+        super(in);
+        this.format = format;
+        inf = inflaters.get();
+        if (inf == null) inf = new Inflater(true);
+        else inflaters.set(null);
+        buf = buffers.get();
+        if (buf == null) buf = new byte[8192];
+        else buffers.set(null);
+        try {
+            if (!ensure(1)) eof = true; // corpo vuoto
+            else header();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (closed) throw new IOException("Stream chiuso");
+        if (len == 0) return 0;
+        try {
+            while (!eof) {
+                int n = inf.inflate(b, off, len);
+                if (n > 0) {
+                    if (check != null) check.update(b, off, n);
+                    return n;
+                }
+                if (inf.finished()) {
+                    pos = limit - inf.getRemaining();
+                    trailer();
+                } else if (inf.needsDictionary()) {
+                    throw new ZipException("Dizionario deflate non supportato");
+                } else if (inf.needsInput()) {
+                    if (pos == limit && !fill()) throw new EOFException("Corpo compresso troncato");
+                    inf.setInput(buf, pos, limit - pos);
+                    pos = limit;
+                }
+            }
+            return -1;
+        } catch (DataFormatException e) {
+            throw new ZipException(e.getMessage());
+        }
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        byte[] skipped = new byte[(int) Math.min(Math.max(n, 0), 512)];
+        long total = 0;
+        while (total < n) {
+            int r = read(skipped, 0, (int) Math.min(skipped.length, n - total));
+            if (r == -1) break;
+            total += r;
+        }
+        return total;
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (closed) throw new IOException("Stream chiuso");
+        return eof ? 0 : 1;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void mark(int readlimit) {}
+
+    @Override
+    public void reset() throws IOException {
+        throw new IOException("mark/reset non supportati");
+    }
+
+    /** Chiude lo stream sottostante e restituisce Inflater e buffer al thread, se non ne ha già */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        inf.reset();
+        if (inflaters.get() == null) inflaters.set(inf);
+        else inf.end();
+        if (buffers.get() == null) buffers.set(buf);
+        inf = null;
+        buf = null;
+        super.close();
+    }
+
+    /** Legge l'intestazione del formato e prepara l'Inflater per i dati che la seguono */
+    private void header() throws IOException {
+        inf.reset();
+        if (format == Format.GZIP) {
+            if (readByte() != 0x1f || readByte() != 0x8b) throw new ZipException("Non è in formato gzip");
+            if (readByte() != 8) throw new ZipException("Metodo di compressione gzip non supportato");
+            int flags = readByte();
+            for (int i = 0; i < 6; i++) readByte(); // MTIME, XFL, OS
+            if ((flags & 4) != 0) { // FEXTRA
+                int length = readByte() | readByte() << 8;
+                for (int i = 0; i < length; i++) readByte();
+            }
+            if ((flags & 8) != 0) while (readByte() != 0); // FNAME
+            if ((flags & 16) != 0) while (readByte() != 0); // FCOMMENT
+            if ((flags & 2) != 0) { // FHCRC
+                readByte();
+                readByte();
+            }
+            check = new CRC32();
+        } else {
+            int cmf = buf[pos] & 0xff, flg = ensure(2) ? buf[pos + 1] & 0xff : -1;
+            if (flg >= 0 && (cmf & 0x0f) == 8 && ((cmf << 8) | flg) % 31 == 0) {
+                if ((flg & 0x20) != 0) throw new ZipException("Dizionario deflate non supportato");
+                pos += 2;
+                check = new Adler32();
+            } else {
+                check = null; // deflate senza intestazione
+            }
+        }
+    }
+
+    /** Legge e verifica il codice di controllo dopo i dati compressi; per gzip passa al membro successivo se c'è */
+    private void trailer() throws IOException {
+        if (format == Format.GZIP) {
+            long crc = readInt(false), size = readInt(false);
+            if (crc != check.getValue()) throw new ZipException("CRC gzip errato");
+            if (size != (inf.getBytesWritten() & 0xffffffffL)) throw new ZipException("Dimensione gzip errata");
+            if (ensure(2) && (buf[pos] & 0xff) == 0x1f && (buf[pos + 1] & 0xff) == 0x8b) header();
+            else eof = true; // come GZIPInputStream, i byte dopo l'ultimo membro sono ignorati
+        } else {
+            if (check != null && readInt(true) != check.getValue()) throw new ZipException("Adler-32 zlib errato");
+            eof = true;
+        }
+    }
+
+    private long readInt(boolean bigEndian) throws IOException {
+        long value = 0;
+        for (int i = 0; i < 4; i++) {
+            long b = readByte();
+            value |= bigEndian ? b << (8 * (3 - i)) : b << (8 * i);
+        }
+        return value;
+    }
+
+    private int readByte() throws IOException {
+        if (pos == limit && !fill()) throw new EOFException("Corpo compresso troncato");
+        return buf[pos++] & 0xff;
+    }
+
+    /** Riempie il buffer con nuovi byte dallo stream sottostante
+     * @return false se lo stream è finito */
+    private boolean fill() throws IOException {
+        int n;
+        do {
+            n = in.read(buf, 0, buf.length);
+        } while (n == 0);
+        if (n < 0) return false;
+        pos = 0;
+        limit = n;
+        return true;
+    }
+
+    /** Si assicura che nel buffer ci siano almeno n byte non ancora usati, spostandoli all'inizio se serve
+     * @return false se lo stream finisce prima */
+    private boolean ensure(int n) throws IOException {
+        if (limit - pos >= n) return true;
+        System.arraycopy(buf, pos, buf, 0, limit - pos);
+        limit -= pos;
+        pos = 0;
+        while (limit < n) {
+            int r = in.read(buf, limit, buf.length - limit);
+            if (r < 0) return false;
+            limit += r;
+        }
+        return true;
+    }
+}
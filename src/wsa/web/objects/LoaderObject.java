@@ -1,93 +1,123 @@
 package wsa.web.objects;
 
-import javafx.application.Platform;
-import javafx.concurrent.Worker;
-import javafx.scene.web.WebEngine;
-import org.w3c.dom.Document;
+import wsa.web.ContentKind;
+import wsa.web.CrawlSettings;
 import wsa.web.LoadResult;
 import wsa.web.Loader;
+import wsa.web.RenderProfile;
+import wsa.web.html.HtmlParsed;
 import wsa.web.html.Parsed;
-import wsa.web.html.ParsingTree;
+import java.io.IOException;
+import java.io.Reader;
 import java.net.URL;
 import java.net.URLConnection;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicReference;
 
 /** Created by Giuseppe on 5/21/2015. */
 
-/** Oggetto Loader concreto */
+/** Oggetto Loader concreto. Per scaricare le pagine prende in prestito una {@link javafx.scene.web.WebEngine}
+ * dal pool condiviso {@link WebEnginePool}, quindi creare molti LoaderObject non crea altrettante WebEngine. */
 public class LoaderObject implements Loader {
 
-    private AtomicReference<WebEngine> webEngine;  //web engine atomica per il download delle pagine
-    private AtomicReference<Parsed> tree; // albero di parsing atomico per avere i dati delle pagine scaricate
-    private AtomicBoolean isFinished; // booleano atomico per controllare se il download della pagina  completato
+    private final WebEnginePool engines; // pool da cui prendere la WebEngine per ogni download
+    private final long timeout; // tempo massimo per un download in millisecondi, 0 per nessun limite
+    private final RenderProfile profile; // come la WebEngine deve caricare le pagine
+    private final boolean prefilter; // se controllare con una HEAD che la pagina sia HTML prima di caricarla
+    private final long maxPageSize; // dimensione massima di una pagina, 0 per nessun limite
+    private HttpLoaderObject staticLoader; // per le pagine che non hanno bisogno della WebEngine, creato se serve
 
+    private static final Pattern HEAD = Pattern.compile("<head(\\s[^>]*)?>", Pattern.CASE_INSENSITIVE);
 
-    /** COSTRUTTORE */
-    public LoaderObject(){
-        tree = new AtomicReference<>();
-        webEngine = new AtomicReference<>();
-        isFinished = new AtomicBoolean();
-    }
 
-    /** Inizializzazione della {@link WebEngine}, viene usato da {@link LoaderObject#load(URL)}
-     *  Crea e imposta la WebEngine nel Thread JavaFX la prima volta che viene chiamato.
-     *  controlla prima se la WebEngine  null, in questo caso ne crea una nuova (la prima volta), e imposta un listener sullo stato
-     *  del Worker. Quando la WebEngine carica una pagina il listener controlla il Worker, se il download  andato a buon fine
-     *  viene preso il {@link Document} per poi creare l'albero di parsing, infine viene fatta scaricare la pagina dell' URL passato.
-     *  Nel caso in cui la WebEngine fosse gi stata craeta (tutte le altre volte), viene semplicemente fatta scaricare
-     *  la pagina dell'URL passato.
-     *  @param url URL della pagina da scaricare. */
-    private void useWEngine(URL url)
-    {
-        Platform.runLater(() -> {
-            if (webEngine.get() == null) {
-                webEngine.set(new WebEngine()); // creazione della WebEngine, avviene solo una volta
-
-                webEngine.get().getLoadWorker().stateProperty().addListener((observable, oldValue, newValue) -> {
-                    if (newValue == Worker.State.SUCCEEDED || newValue == Worker.State.CANCELLED || newValue == Worker.State.FAILED) {
-                        if (newValue == Worker.State.SUCCEEDED) {   // se la WebEngine ha scaricato
-                            Document doc = webEngine.get().getDocument(); // prende il document dalla pagina appena scaricata e
-                            if (doc != null)            // viene controllato se esiste, nel caso viene creato l'albero altrimenti ritorna
-                                try {
-                                    tree.set(new ParsingTree(doc));
-                                } catch (Exception e) {
-                                    e.printStackTrace();
-                                }
-                            else return;
-                        } else
-                            tree.set(null); // se la webEngine non  riuscita a scaricare la pagina, l'albero  impostato come null
-
-                        isFinished.set(true);  //in qualsiasi caso ha completato il lavoro e
-                    }                          // pu il main Thread pu uscire dall'attesa nel metodo load
-                });
-                webEngine.get().load(url.toString());
-                //Altrimenti carica normalmente, usando poi il listener gi collegato all webEngine
-            } else {
-                //webEngine.get().load("");
-                webEngine.get().load(url.toString());
-            }
-        });
+    /** COSTRUTTORE, la dimensione del pool di WebEngine, il tempo massimo per un download e il profilo di
+     * rendering sono presi da {@link wsa.web.CrawlSettings#getWebEngines()},
+     * {@link wsa.web.CrawlSettings#getLoadTimeout()} e {@link wsa.web.CrawlSettings#getRenderProfile()} */
+    public LoaderObject(){
+        engines = WebEnginePool.shared();
+        timeout = CrawlSettings.getLoadTimeout();
+        profile = CrawlSettings.getRenderProfile();
+        prefilter = CrawlSettings.isPrefilter();
+        maxPageSize = CrawlSettings.getMaxPageSize();
     }
 
     /** Ritorna il risultato del tentativo di scaricare la pagina specificata.
-     * Nel Thread JavaFX viene iniziato il download della pagina e si mette in attesa il Main Thread, una volta completato il download
-     * si prende il risultato dell'albero di parsing (che pu essere giusto, null oppure  stata lanciata un eccezione)
-     * e si ritorna un {@link LoadResult} creato a seconda dei casi.
+     * Prende una WebEngine dal pool (aspettando il proprio turno se sono tutte in uso), nel Thread JavaFX
+     * viene iniziato il download della pagina e il thread chiamante resta in attesa sul future del download,
+     * che viene completato dal listener della WebEngine con l'albero di parsing (che pu essere giusto, null
+     * oppure  stata lanciata un eccezione). Infine la WebEngine  restituita al pool e si ritorna un
+     * {@link LoadResult} creato a seconda dei casi.
+     * Se il download non finisce entro il tempo massimo viene interrotto, la WebEngine  scartata dal pool
+     * (che ne creer una nuova) e si ritorna un LoadResult con una {@link TimeoutException}.
+     * Le pagine indicate come statiche dal {@link RenderProfile} sono scaricate senza WebEngine. Le pagine http
+     * e https sono scaricate qui, prima di occupare una WebEngine, quando c' una dimensione massima o il profilo
+     * blocca delle risorse, e passate alla WebEngine con la politica che le blocca: della pagina si leggono al
+     * massimo {@link CrawlSettings#getMaxPageSize()} byte e il risultato  segnato come troncato. Solo senza
+     * limite e senza risorse bloccate  la WebEngine a scaricare la pagina, tenendola tutta in memoria.
+     * Se per il dominio della pagina  registrata una {@link PageCache} la pagina  letta da l quando c',
+     * senza WebEngine (se non  pi valida solo dopo che una richiesta condizionale ha confermato che non 
+     * cambiata), altrimenti il testo della pagina caricata vi viene salvato. ETag e Last-Modified sono salvati
+     * con la pagina solo quando la GET  fatta qui; quando  la WebEngine a scaricarla non si fanno richieste
+     * in pi per gli header e la pagina sar controllata con il momento del salvataggio (If-Modified-Since).
+     * Se il prefiltro  attivo, prima di scaricare la pagina una richiesta HEAD controlla che il contenuto
+     * sia HTML e non troppo grande, altrimenti si ritorna un risultato con il relativo {@link wsa.web.ContentKind}.
      * @param url  l'URL di una pagina web
      * @return il risultato del tentativo di scaricare la pagina */
     @Override
     public LoadResult load(URL url) {
-        isFinished.set( false );
+        if (profile.isStatic(url)) {
+            if (staticLoader == null) staticLoader = new HttpLoaderObject();
+            return staticLoader.load(url);
+        }
+        PageCache.Entry cached = PageCache.find(url);
+        if (cached != null && (cached.isFresh() || HttpLoaderObject.notModified(url, cached))) {
+            try (Reader reader = cached.reader()) {
+                return new LoadResult(url, HtmlParsed.parse(reader), null);
+            } catch (IOException ignored) {} // file della cache rovinato, si scarica la pagina
+        }
+        boolean cache = PageCache.isCached(url);
+        if (prefilter) { // la WebEngine scaricherebbe tutto, anche PDF o file enormi
+            LoadResult skipped = HttpLoaderObject.probe(url, maxPageSize);
+            if (skipped != null) return skipped;
+        }
+        // header da salvare nella cache con la pagina: ETag e Last-Modified solo se la GET  fatta qui,
+        // la WebEngine non d accesso agli header della risposta
+        Map<String, String> stored = new HashMap<>();
+        stored.put("content-type", "text/html; charset=UTF-8"); // il testo salvato  quello della WebEngine
         try {
-            // Thread JavaFX INIZIATO
-            useWEngine(url);
-            // Thread JavaFX RITORNATO
-
-            while (!isFinished.get()) { Thread.sleep(50); }
+            String content = null;
+            AtomicBoolean truncated = new AtomicBoolean();
+            // scaricata prima di occupare una WebEngine, cos WebKit non legge pi di maxPageSize byte
+            if ((maxPageSize > 0 || !profile.getBlocked().isEmpty()) && HttpLoaderObject.isHttp(url))
+                content = withPolicy(HttpLoaderObject.text(url, maxPageSize, truncated, stored), url);
+
+            WebEnginePool.Engine engine = engines.acquire();
+            Parsed tree;
+            try {
+                tree = engine.load(url, content, profile, timeout, !cache || truncated.get() ? null
+                        : html -> PageCache.store(url, stored, html.getBytes(StandardCharsets.UTF_8))).get();
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof TimeoutException) {
+                    engines.discard(engine); // la WebEngine potrebbe essere bloccata, non viene riusata
+                    return new LoadResult(url, null, new TimeoutException("Download interrotto dopo " + timeout + " ms"));
+                }
+                engines.release(engine);
+                throw ex;
+            } catch (InterruptedException ex) {
+                engine.cancel();
+                engines.discard(engine);
+                throw ex;
+            }
+            engines.release(engine);
 
-            if (tree.get() != null)
-                return new LoadResult(url, tree.get(), null);
+            if (tree != null)
+                return new LoadResult(url, tree, null, ContentKind.HTML, null, truncated.get());
             else
                 return new LoadResult(url, null, new Exception("Creazione albero fallita!"));
 
@@ -97,6 +127,25 @@ public class LoaderObject implements Loader {
         }
     }
 
+    /** Aggiunge all'inizio dell'head della pagina un &lt;base&gt; con l'URL originale, perch passata con
+     * loadContent la pagina non ha un indirizzo, e se il profilo blocca delle risorse una
+     * Content-Security-Policy che vieta il download di quei tipi.
+     * @param html  il testo della pagina
+     * @param url  l'URL della pagina
+     * @return il testo da far caricare alla WebEngine */
+    private String withPolicy(String html, URL url) {
+        StringBuilder policy = new StringBuilder();
+        for (RenderProfile.Subresource type : profile.getBlocked())
+            policy.append(type.directive).append(" 'none'; ");
+        String head = "<base href=\"" + url.toString().replace("\"", "&quot;") + "\">";
+        if (policy.length() > 0)
+            head += "<meta http-equiv=\"Content-Security-Policy\" content=\"" + policy.toString().trim() + "\">";
+        Matcher m = HEAD.matcher(html);
+        if (!m.find())
+            return head + html;
+        return html.substring(0, m.end()) + head + html.substring(m.end());
+    }
+
     /** Viene fatto un controllo sull' {@link URL} creando una connessione alla pagina con un limite massimo
      * di tempo consentito, se non ci sono problemi a connettersi ritorna null, altrimenti l'url crea problemi e si
      * ritorna l'eccezione generata. Con questo metodo si pu controllare quale url  buono e quale no.
@@ -0,0 +1,468 @@
+package wsa.web.objects;
+
+import wsa.web.CrawlSettings;
+import wsa.web.SiteCrawler;
+
+import java.io.*;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.GZIPOutputStream;
+
+/** Cache su disco delle pagine scaricate, tipicamente nella directory "cache" di un {@link SiteCrawlerObject}.
+ * Ogni pagina è un file il cui nome è l'impronta dell'URI normalizzato e che contiene l'URI, il momento
+ * del salvataggio, gli header della risposta e il corpo compresso con gzip. Quando la dimensione totale
+ * supera il massimo si eliminano le pagine usate meno di recente; l'ordine di uso sopravvive alla
+ * chiusura del programma perché è la data di modifica dei file.
+ * Una cache registrata con {@link PageCache#register(URI, PageCache)} per un dominio è consultata dai
+ * Loader per tutti gli URI del dominio, così analizzare di nuovo una pagina già scaricata costa una
+ * lettura dal disco invece di un download.
+ * Con gli header sono salvati ETag e Last-Modified: una pagina non più valida non è scartata ma
+ * controllata con una richiesta condizionale, se il server risponde 304 si riusa il corpo salvato. */
+public class PageCache {
+
+    /** Una pagina presente nella cache */
+    public static class Entry {
+        /** L'URI normalizzato della pagina */
+        public final URI uri;
+        /** Il momento del salvataggio, in millisecondi dall'epoca */
+        public final long stored;
+        /** Gli header della risposta, con i nomi in minuscolo */
+        public final Map<String, String> headers;
+        private final Path file;
+        private final long bodyOffset;
+        private final boolean fresh;
+
+        private Entry(URI uri, long stored, Map<String, String> headers, Path file, long bodyOffset, boolean fresh) {
+            this.uri = uri;
+            this.stored = stored;
+            this.headers = Collections.unmodifiableMap(headers);
+            this.file = file;
+            this.bodyOffset = bodyOffset;
+            this.fresh = fresh;
+        }
+
+        /** @return true se la pagina è stata salvata da meno del tempo massimo della cache; sempre false
+         * con tempo massimo 0, la pagina va controllata con una richiesta condizionale prima di usarla */
+        public boolean isFresh() {
+            return fresh;
+        }
+
+        /** @return il corpo della pagina, decompresso mentre lo si legge con l'Inflater del thread
+         * @throws IOException se il file non si può leggere */
+        public InputStream body() throws IOException {
+            InputStream in = compressed();
+            try {
+                return new InflatingInputStream(in, InflatingInputStream.Format.GZIP);
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+        }
+
+        /** @return il corpo della pagina così come è nel file, compresso */
+        private InputStream compressed() throws IOException {
+            InputStream in = Files.newInputStream(file);
+            try {
+                long skip = bodyOffset;
+                while (skip > 0) {
+                    long n = in.skip(skip);
+                    if (n <= 0) throw new EOFException();
+                    skip -= n;
+                }
+                return in;
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+        }
+
+        /** @return gli header per una richiesta condizionale: If-None-Match se c'è l'ETag,
+         * If-Modified-Since con il Last-Modified o, se manca, con il momento del salvataggio */
+        Map<String, String> conditionalHeaders() {
+            Map<String, String> conditional = new HashMap<>();
+            String etag = headers.get("etag");
+            if (etag != null) conditional.put("If-None-Match", etag);
+            String modified = headers.get("last-modified");
+            if (modified == null && etag == null)
+                modified = DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(stored).atOffset(ZoneOffset.UTC));
+            if (modified != null) conditional.put("If-Modified-Since", modified);
+            return conditional;
+        }
+
+        /** @return il corpo della pagina come testo, con il charset indicato dall'header Content-Type
+         * @throws IOException se il file non si può leggere */
+        public Reader reader() throws IOException {
+            return new InputStreamReader(body(), HttpLoaderObject.charset(headers.get("content-type")));
+        }
+    }
+
+    /** Scrive il corpo compresso di una pagina */
+    private interface BodyWriter {
+        void write(OutputStream out) throws IOException;
+    }
+
+    /** Il corpo di una pagina salvato mentre viene letto, senza tenerlo in memoria: i byte scritti sono
+     * compressi in un file a parte che prende il posto della pagina con {@link PageWriter#commit()}.
+     * Chiuso senza commit il file è cancellato e la cache non cambia. */
+    public class PageWriter extends OutputStream {
+        private final URI uri;
+        private final Path tmp;
+        private final GZIPOutputStream gzip;
+        private boolean closed;
+
+        private PageWriter(URI uri, Map<String, String> headers) throws IOException {
+            this.uri = uri;
+            tmp = Files.createTempFile(dir, "put", ".tmp");
+            try {
+                gzip = new GZIPOutputStream(begin(uri, headers, tmp), 8192);
+            } catch (IOException e) {
+                Files.deleteIfExists(tmp);
+                throw e;
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            gzip.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            gzip.write(b, off, len);
+        }
+
+        /** Completa il file e lo mette al posto della pagina con lo stesso URI
+         * @throws IOException se il file non si può scrivere o è già stato chiuso */
+        public void commit() throws IOException {
+            if (closed) throw new IOException("PageWriter chiuso");
+            closed = true;
+            try {
+                gzip.close();
+                install(uri, tmp);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        }
+
+        /** Se non è stato fatto il commit abbandona la pagina e cancella il file */
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            try {
+                gzip.close();
+            } catch (IOException ignored) {}
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException ignored) {}
+        }
+    }
+
+    private static final int MAGIC = 0x57534143; // "WSAC"
+    private static final String SUFFIX = ".page";
+
+    private static final List<Map.Entry<URI, PageCache>> registry = new CopyOnWriteArrayList<>();
+
+    /** Registra la cache per gli URI di un dominio, sostituendo quella registrata prima per lo stesso dominio.
+     * Il dominio e gli URI cercati sono confrontati nella forma data da {@link CrawlSettings#getCanonicalizer()}.
+     * @param dom  un dominio, come per {@link SiteCrawler}
+     * @param cache  la cache */
+    public static void register(URI dom, PageCache cache) {
+        URI canonical = CrawlSettings.getCanonicalizer().canonicalize(dom);
+        unregister(canonical);
+        registry.add(new AbstractMap.SimpleImmutableEntry<>(canonical, cache));
+    }
+
+    /** Elimina la registrazione della cache di un dominio, i file restano sul disco
+     * @param dom  un dominio */
+    public static void unregister(URI dom) {
+        URI canonical = CrawlSettings.getCanonicalizer().canonicalize(dom);
+        registry.removeIf(e -> e.getKey().equals(canonical));
+    }
+
+    /** @param uri  l'URI di una pagina
+     * @return la cache registrata per un dominio che contiene l'URI, o null */
+    public static PageCache lookup(URI uri) {
+        URI canonical = CrawlSettings.getCanonicalizer().canonicalize(uri);
+        for (Map.Entry<URI, PageCache> e : registry)
+            if (SiteCrawler.checkSeed(e.getKey(), canonical)) return e.getValue();
+        return null;
+    }
+
+    /** @return l'URI dell'URL nella forma data da {@link CrawlSettings#getCanonicalizer()}, con cui la pagina
+     * è salvata e cercata dai Loader */
+    private static URI canonical(URL url) throws URISyntaxException {
+        return CrawlSettings.getCanonicalizer().canonicalize(url.toURI());
+    }
+
+    /** @param url  l'URL di una pagina
+     * @return true se c'è una cache registrata per il dominio della pagina */
+    static boolean isCached(URL url) {
+        try {
+            return lookup(url.toURI()) != null;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /** Cerca la pagina nella cache registrata per il suo dominio. Gli errori sono ignorati.
+     * @param url  l'URL di una pagina
+     * @return la pagina, anche se non è più valida, o null se non c'è */
+    static Entry find(URL url) {
+        try {
+            URI uri = canonical(url);
+            PageCache cache = lookup(uri);
+            return cache == null ? null : cache.get(uri);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /** Segna come di nuovo valida una pagina della cache registrata per il suo dominio, dopo che il server
+     * ha risposto 304 a una richiesta condizionale. Gli errori sono ignorati.
+     * @param entry  la pagina
+     * @param headers  gli header della risposta 304 con i nomi in minuscolo, sostituiscono quelli salvati */
+    static void revalidated(Entry entry, Map<String, String> headers) {
+        try {
+            PageCache cache = lookup(entry.uri);
+            if (cache != null) cache.revalidate(entry, headers);
+        } catch (Exception ignored) {}
+    }
+
+    /** Inizia a salvare, mentre viene letta, una pagina nella cache registrata per il suo dominio.
+     * @param url  l'URL della pagina
+     * @param headers  gli header della risposta con i nomi in minuscolo
+     * @return dove scrivere il corpo della pagina, o null se non c'è una cache o il file non si può creare */
+    static PageWriter writer(URL url, Map<String, String> headers) {
+        try {
+            URI uri = canonical(url);
+            PageCache cache = lookup(uri);
+            return cache == null ? null : cache.writer(uri, headers);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /** Salva la pagina nella cache registrata per il suo dominio, se c'è. Gli errori sono ignorati.
+     * @param url  l'URL della pagina
+     * @param headers  gli header della risposta con i nomi in minuscolo
+     * @param body  il corpo della pagina */
+    static void store(URL url, Map<String, String> headers, byte[] body) {
+        try {
+            URI uri = canonical(url);
+            PageCache cache = lookup(uri);
+            if (cache != null) cache.put(uri, headers, body);
+        } catch (Exception ignored) {}
+    }
+
+    private final Path dir;
+    private final long maxBytes;
+    private final long maxAge;
+    private final LinkedHashMap<String, Long> index = new LinkedHashMap<>(16, 0.75f, true); // file -> byte, in ordine di uso
+    private long total;
+
+    /** COSTRUTTORE, apre la cache nella directory, creandola se non esiste, e indicizza le pagine già presenti
+     * @param dir  la directory della cache
+     * @param maxBytes  dimensione massima totale dei file in byte
+     * @param maxAge  dopo quanti millisecondi una pagina non è più valida, 0 per controllarla sempre
+     * @throws IOException se la directory non si può creare o leggere */
+    public PageCache(Path dir, long maxBytes, long maxAge) throws IOException {
+        if (maxBytes <= 0 || maxAge < 0)
+            throw new IllegalArgumentException();
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.maxAge = maxAge;
+        Files.createDirectories(dir);
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        Map<Path, FileTime> times = new HashMap<>();
+        for (Path f : files) times.put(f, Files.getLastModifiedTime(f));
+        files.sort(Comparator.comparing(times::get));
+        for (Path f : files) {
+            long size = Files.size(f);
+            index.put(f.getFileName().toString(), size);
+            total += size;
+        }
+        evict();
+    }
+
+    /** Ritorna la pagina con l'URI specificato, anche se non è più valida (vedi {@link Entry#isFresh()}).
+     * @param uri  l'URI della pagina
+     * @return la pagina o null se non è nella cache */
+    public Entry get(URI uri) {
+        String key = key(uri);
+        synchronized (this) {
+            if (index.get(key) == null) return null; // get la rende anche la più recente
+        }
+        Path file = dir.resolve(key);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) return null;
+            int headerLength = in.readInt();
+            String stored = in.readUTF();
+            if (!stored.equals(normalize(uri))) return null; // impronte uguali per URI diversi
+            long time = in.readLong();
+            Map<String, String> headers = new HashMap<>();
+            for (int n = in.readInt(); n > 0; n--)
+                headers.put(in.readUTF(), in.readUTF());
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            boolean fresh = maxAge > 0 && System.currentTimeMillis() - time <= maxAge;
+            return new Entry(URI.create(stored), time, headers, file, 8L + headerLength, fresh);
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /** Salva una pagina, sostituendo quella con lo stesso URI, ed elimina le meno usate se si supera la
+     * dimensione massima. Il file è scritto a parte e poi spostato, così chi legge non vede mai un file a metà.
+     * @param uri  l'URI della pagina
+     * @param headers  gli header della risposta con i nomi in minuscolo
+     * @param body  il corpo della pagina
+     * @throws IOException se il file non si può scrivere */
+    public void put(URI uri, Map<String, String> headers, byte[] body) throws IOException {
+        write(uri, headers, out -> {
+            GZIPOutputStream gzip = new GZIPOutputStream(out, 8192);
+            gzip.write(body);
+            gzip.finish();
+        });
+    }
+
+    /** Inizia a salvare una pagina di cui il corpo è scritto man mano, vedi {@link PageWriter}
+     * @param uri  l'URI della pagina
+     * @param headers  gli header della risposta con i nomi in minuscolo
+     * @return dove scrivere il corpo della pagina
+     * @throws IOException se il file non si può creare */
+    public PageWriter writer(URI uri, Map<String, String> headers) throws IOException {
+        return new PageWriter(uri, headers);
+    }
+
+    /** Rende di nuovo valida una pagina, con gli header aggiornati, senza ricomprimerne il corpo.
+     * @param entry  la pagina, ritornata da {@link PageCache#get(URI)}
+     * @param headers  gli header nuovi con i nomi in minuscolo, sostituiscono quelli salvati
+     * @throws IOException se il file non si può leggere o scrivere */
+    public void revalidate(Entry entry, Map<String, String> headers) throws IOException {
+        Map<String, String> merged = new HashMap<>(entry.headers);
+        merged.putAll(headers);
+        write(entry.uri, merged, out -> {
+            try (InputStream in = entry.compressed()) {
+                byte[] buf = new byte[8192];
+                for (int n; (n = in.read(buf)) != -1; )
+                    out.write(buf, 0, n);
+            }
+        });
+    }
+
+    /** Scrive il file di una pagina a parte e poi lo sposta al suo posto
+     * @param uri  l'URI della pagina
+     * @param headers  gli header con i nomi in minuscolo
+     * @param body  scrive il corpo compresso */
+    private void write(URI uri, Map<String, String> headers, BodyWriter body) throws IOException {
+        Path tmp = Files.createTempFile(dir, "put", ".tmp");
+        try {
+            try (DataOutputStream out = begin(uri, headers, tmp)) {
+                body.write(out);
+            }
+            install(uri, tmp);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /** Apre il file temporaneo di una pagina e vi scrive l'intestazione con URI, momento del salvataggio e header
+     * @return il file aperto, dove scrivere il corpo compresso */
+    private DataOutputStream begin(URI uri, Map<String, String> headers, Path tmp) throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(header)) {
+            out.writeUTF(normalize(uri));
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(headers.size());
+            for (Map.Entry<String, String> h : headers.entrySet()) {
+                out.writeUTF(h.getKey());
+                out.writeUTF(h.getValue());
+            }
+        }
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(header.size());
+            header.writeTo(out);
+            return out;
+        } catch (IOException e) {
+            out.close();
+            throw e;
+        }
+    }
+
+    /** Sposta il file temporaneo completo di una pagina al suo posto ed elimina le pagine meno usate
+     * se si supera la dimensione massima */
+    private void install(URI uri, Path tmp) throws IOException {
+        String key = key(uri);
+        long size = Files.size(tmp);
+        synchronized (this) {
+            try {
+                Files.move(tmp, dir.resolve(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, dir.resolve(key), StandardCopyOption.REPLACE_EXISTING);
+            }
+            Long old = index.put(key, size);
+            total += size - (old == null ? 0 : old);
+            evict();
+        }
+    }
+
+    /** Elimina la pagina con l'URI specificato, se c'è
+     * @param uri  l'URI della pagina */
+    public synchronized void remove(URI uri) {
+        String key = key(uri);
+        Long size = index.remove(key);
+        if (size != null) {
+            total -= size;
+            try {
+                Files.deleteIfExists(dir.resolve(key));
+            } catch (IOException ignored) {}
+        }
+    }
+
+    /** @return la dimensione totale in byte dei file della cache */
+    public synchronized long size() {
+        return total;
+    }
+
+    /** Elimina le pagine usate meno di recente finché la dimensione totale non rientra nel massimo */
+    private synchronized void evict() {
+        Iterator<Map.Entry<String, Long>> it = index.entrySet().iterator();
+        while (total > maxBytes && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            try {
+                Files.deleteIfExists(dir.resolve(eldest.getKey()));
+            } catch (IOException ignored) {}
+            total -= eldest.getValue();
+            it.remove();
+        }
+    }
+
+    /** @return il nome del file della pagina: l'impronta dell'URI normalizzato, come in {@link SeenSet} */
+    private static String key(URI uri) {
+        return Long.toHexString(SeenSet.fingerprint(strip(uri))) + SUFFIX;
+    }
+
+    /** @return l'URI normalizzato e senza frammento, come stringa */
+    private static String normalize(URI uri) {
+        return strip(uri).normalize().toString();
+    }
+
+    private static URI strip(URI uri) {
+        if (uri.getRawFragment() == null) return uri;
+        String s = uri.toString();
+        return URI.create(s.substring(0, s.indexOf('#')));
+    }
+}
@@ -0,0 +1,149 @@
+package wsa.web.objects;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Locale;
+
+/** Insieme degli URI già sottomessi da un crawler. Non memorizza gli URI ma solo un'impronta
+ * (fingerprint) a 64 bit della loro forma normalizzata, in una tabella hash a indirizzamento aperto:
+ * controllo e inserimento costano O(1) e ogni URI occupa meno di 32 byte. Non usa mai
+ * {@link java.net.URL#equals(Object)}, quindi non fa risoluzioni DNS.
+ * <br>
+ * Se creato con {@link SeenSet#bloom(long, double)} usa invece un filtro di Bloom di dimensione fissa:
+ * la memoria non cresce con il numero di URI, ma con la probabilità scelta un URI nuovo può risultare
+ * già visto e quindi non essere scaricato. */
+public class SeenSet {
+
+    private long[] table; // tabella delle impronte, 0 indica una cella vuota
+    private final long[] bits; // bit del filtro di Bloom, null se si usa la tabella
+    private final int hashes; // numero di funzioni hash del filtro di Bloom
+    private int size;
+
+    /** COSTRUTTORE, crea un insieme esatto */
+    public SeenSet() {
+        table = new long[1024];
+        bits = null;
+        hashes = 0;
+    }
+
+    private SeenSet(long bitCount, int hashes) {
+        bits = new long[(int) ((bitCount + 63) / 64)];
+        this.hashes = hashes;
+    }
+
+    /** Crea un insieme basato su un filtro di Bloom dimensionato per il numero di URI previsto.
+     * @param expected  numero di URI previsto
+     * @param fpp  probabilità di falsi positivi, tra 0 e 1 esclusi
+     * @return un nuovo SeenSet di dimensione fissa */
+    public static SeenSet bloom(long expected, double fpp) {
+        if (expected <= 0 || fpp <= 0 || fpp >= 1)
+            throw new IllegalArgumentException();
+        long m = (long) Math.ceil(-expected * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        m = Math.max(64, Math.min(m, (long) Integer.MAX_VALUE * 64));
+        int k = (int) Math.max(1, Math.round((double) m / expected * Math.log(2)));
+        return new SeenSet(m, k);
+    }
+
+    /** Aggiunge l'URI all'insieme.
+     * @param uri  un URI
+     * @return true se l'URI non era già presente */
+    public synchronized boolean add(URI uri) {
+        long fp = fingerprint(uri);
+        if (bits != null) return setBits(fp);
+        int i = find(fp);
+        if (table[i] == fp) return false;
+        table[i] = fp;
+        if (++size > table.length * 0.6) grow();
+        return true;
+    }
+
+    /** @param uri  un URI
+     * @return true se l'URI è presente (per il filtro di Bloom: probabilmente presente) */
+    public synchronized boolean contains(URI uri) {
+        long fp = fingerprint(uri);
+        if (bits != null) return testBits(fp);
+        return table[find(fp)] == fp;
+    }
+
+    /** @return il numero di URI aggiunti */
+    public synchronized int size() {
+        return size;
+    }
+
+    /** Svuota l'insieme */
+    public synchronized void clear() {
+        if (bits != null) Arrays.fill(bits, 0);
+        else table = new long[1024];
+        size = 0;
+    }
+
+    /** Ritorna la cella in cui si trova l'impronta o, se manca, la prima cella vuota dove inserirla */
+    private int find(long fp) {
+        int mask = table.length - 1;
+        int i = (int) fp & mask;
+        while (table[i] != 0 && table[i] != fp)
+            i = (i + 1) & mask;
+        return i;
+    }
+
+    private void grow() {
+        long[] old = table;
+        table = new long[old.length * 2];
+        for (long fp : old)
+            if (fp != 0) table[find(fp)] = fp;
+    }
+
+    private boolean setBits(long fp) {
+        boolean added = false;
+        for (int i = 0; i < hashes; i++) {
+            long bit = bitIndex(fp, i);
+            long mask = 1L << bit;
+            int word = (int) (bit >>> 6);
+            if ((bits[word] & mask) == 0) {
+                bits[word] |= mask;
+                added = true;
+            }
+        }
+        if (added) size++;
+        return added;
+    }
+
+    private boolean testBits(long fp) {
+        for (int i = 0; i < hashes; i++) {
+            long bit = bitIndex(fp, i);
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    /** Doppio hashing: le k posizioni sono ricavate dalle due metà dell'impronta */
+    private long bitIndex(long fp, int i) {
+        long h = (fp >>> 32) + i * (fp & 0xffffffffL);
+        return (h & Long.MAX_VALUE) % ((long) bits.length * 64);
+    }
+
+    /** Impronta a 64 bit dell'URI normalizzato: path senza "." e "..", schema e host in minuscolo.
+     * FNV-1a seguito dal rimescolamento finale di MurmurHash3, mai 0.
+     * @param uri  un URI
+     * @return l'impronta dell'URI */
+    static long fingerprint(URI uri) {
+        String s = uri.normalize().toString();
+        String scheme = uri.getScheme(), host = uri.getHost();
+        if (scheme != null) s = scheme.toLowerCase(Locale.ROOT) + s.substring(scheme.length());
+        if (host != null) {
+            int at = s.indexOf(host);
+            if (at >= 0) s = s.substring(0, at) + host.toLowerCase(Locale.ROOT) + s.substring(at + host.length());
+        }
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h == 0 ? 1 : h;
+    }
+}
@@ -10,7 +10,13 @@ import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Predicate;
 
 
@@ -24,7 +30,9 @@ import java.util.function.Predicate;
  * (metodo {@link SiteCrawler#suspend()}) e quando l'esplorazione termina normalmente. */
 public class SiteCrawlerObject implements SiteCrawler {
 
-    private URI dom;
+    private URI dom; // in forma canonica, come gli URI del Crawler
+    private final UriCanonicalizer canonicalizer;
+    private final long resultWait; // millisecondi di attesa per un subscriber con il buffer pieno
     private Path dir;
     private boolean running, cancelled, canArchive;
     private Set<URI> loaded, toLoad, errs;
@@ -33,10 +41,15 @@ public class SiteCrawlerObject implements SiteCrawler {
     private final ExecutorService exec;
     private AtomicReference<List<CrawlerResult>> cResults;
     private int index;
+    private final ReentrantLock resultsLock; // protegge cResults e index
+    private final Condition ready; // segnalata quando c' un nuovo risultato o una sospensione
+    private SubmissionPublisher<CrawlerResult> publisher; // creato alla prima richiesta di results()
 
     /** COSTRUTTORE */
     public SiteCrawlerObject(URI dom, Path dir) {
-        this.dom = dom;
+        canonicalizer = CrawlSettings.getCanonicalizer();
+        resultWait = CrawlSettings.getResultWait();
+        this.dom = canonicalizer.canonicalize(dom);
         this.dir = dir;
 
         running = false;
@@ -45,6 +58,8 @@ public class SiteCrawlerObject implements SiteCrawler {
         toLoad = new HashSet<>();
         errs = new HashSet<>();
         cResults = new AtomicReference<>(new ArrayList<>());
+        resultsLock = new ReentrantLock();
+        ready = resultsLock.newCondition();
         exec = Executors.newFixedThreadPool(2, r -> {
             Thread thread = new Thread(r);
             thread.setDaemon(false);
@@ -56,11 +71,19 @@ public class SiteCrawlerObject implements SiteCrawler {
         if (this.dir != null) {
             pathToArchive = Paths.get(dir.toString() + "/Crawler_Archive.ser");
             canArchive = true;
-            if (dom == null) loadArchive();
+            if (dom == null) {
+                loadArchive();
+                this.dom = canonicalizer.canonicalize(this.dom); // archivi salvati con il dominio com'era dato
+            }
+            else Frontier.discard(dir.resolve("frontier")); // nuova esplorazione, non si riprende niente
+            openCache();
         }
 
-        Predicate<URI> pageLink = uri -> SiteCrawler.checkSeed(dom, uri);
-        crawler = WebFactory.getCrawler(loaded, toLoad, errs, pageLink);
+        URI domain = this.dom; // anche quello letto dall'archivio
+        Predicate<URI> pageLink = uri -> SiteCrawler.checkSeed(domain, uri);
+        // con l'archivio gli URI da scaricare che non stanno in memoria vanno nella sua directory
+        crawler = WebFactory.getCrawler(loaded, toLoad, errs, pageLink,
+                this.dir != null ? this.dir.resolve("frontier") : null);
     }
 
     /** Aggiunge un seed URI. Se per  presente tra quelli gi scaricati,
@@ -74,6 +97,7 @@ public class SiteCrawlerObject implements SiteCrawler {
     @Override
     public void addSeed(URI uri) {
         except();
+        uri = canonicalizer.canonicalize(uri);
         if ( ! SiteCrawler.checkSeed(dom, uri))
             throw new IllegalArgumentException();
         crawler.add(uri);
@@ -93,20 +117,15 @@ public class SiteCrawlerObject implements SiteCrawler {
 
         crawler.start();
 
+        // prende i risultati dal Crawler appena sono pronti, senza attese a intervalli fissi
         exec.submit(() -> {
             while (isRunning()) {
-                if (dom != null) {
-                    Optional<CrawlerResult> result = crawler.get();
-                    if (result.isPresent()) {
-                        CrawlerResult crawlerResult = result.get();
-                        if (crawlerResult.uri != null)
-                            cResults.get().add(crawlerResult);
-                        else try {
-                            Thread.sleep(1000);
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
-                        }
-                    }
+                try {
+                    CrawlerResult crawlerResult = crawler.take();
+                    if (crawlerResult != null) addResult(crawlerResult);
+                    else if (!crawler.isRunning()) break; // sospeso
+                } catch (InterruptedException | IllegalStateException e) {
+                    break; // interrotto o cancellato
                 }
             }
         });
@@ -137,6 +156,34 @@ public class SiteCrawlerObject implements SiteCrawler {
         running = false;
         if (dir != null) saveArchive();
         crawler.suspend();
+        signalResults();
+    }
+
+    /** Aggiunge un risultato a quelli del SiteCrawler, sveglia chi aspetta in take o poll e lo passa
+     * ai subscriber di {@link SiteCrawlerObject#results()}
+     * @param result  il risultato */
+    private void addResult(CrawlerResult result) {
+        SubmissionPublisher<CrawlerResult> p;
+        resultsLock.lock();
+        try {
+            cResults.get().add(result);
+            ready.signalAll();
+            p = publisher;
+        } finally {
+            resultsLock.unlock();
+        }
+        if (p != null && p.hasSubscribers()) // un subscriber con il buffer pieno perde il risultato, l'esplorazione non si ferma
+            p.offer(result, resultWait, TimeUnit.MILLISECONDS, (subscriber, dropped) -> false);
+    }
+
+    /** Sveglia chi aspetta in take o poll */
+    private void signalResults() {
+        resultsLock.lock();
+        try {
+            ready.signalAll();
+        } finally {
+            resultsLock.unlock();
+        }
     }
 
     /** Cancella il SiteCrawler per sempre. Dopo questa invocazione il
@@ -149,6 +196,13 @@ public class SiteCrawlerObject implements SiteCrawler {
         crawler.cancel();
         exec.shutdown();
         cancelled = true;
+        if (dom != null) PageCache.unregister(dom);
+        resultsLock.lock();
+        try {
+            if (publisher != null) publisher.close();
+        } finally {
+            resultsLock.unlock();
+        }
 
         toLoad.clear();
         loaded.clear();
@@ -177,15 +231,77 @@ public class SiteCrawlerObject implements SiteCrawler {
         if (!isRunning())
             return Optional.empty();
         Optional<CrawlerResult> optional = Optional.of(new CrawlerResult(null, false, null, null, null));
-        if (index < cResults.get().size()){
-            optional = Optional.of(cResults.get().get(index));
-            index++;
+        resultsLock.lock();
+        try {
+            if (index < cResults.get().size()){
+                optional = Optional.of(cResults.get().get(index));
+                index++;
+            }
+        } finally {
+            resultsLock.unlock();
         }
         return optional;
     }
 
+    /** Ritorna il risultato relativo al prossimo URI aspettando che sia pronto.
+     * @throws IllegalStateException se il SiteCrawler  cancellato
+     * @throws InterruptedException se il thread  interrotto mentre aspetta
+     * @return il risultato relativo al prossimo URI scaricato, o null se il SiteCrawler
+     * non  in esecuzione o viene sospeso mentre si aspetta */
+    @Override
+    public CrawlerResult take() throws InterruptedException {
+        except();
+        resultsLock.lockInterruptibly();
+        try {
+            while (isRunning() && index >= cResults.get().size())
+                ready.await();
+            return isRunning() ? cResults.get().get(index++) : null;
+        } finally {
+            resultsLock.unlock();
+        }
+    }
+
+    /** Ritorna il risultato relativo al prossimo URI aspettando al massimo il tempo specificato.
+     * @param timeout  il tempo massimo da aspettare
+     * @param unit  l'unit di misura di timeout
+     * @throws IllegalStateException se il SiteCrawler  cancellato
+     * @throws InterruptedException se il thread  interrotto mentre aspetta
+     * @return il risultato relativo al prossimo URI scaricato, o null se il tempo  scaduto
+     * o il SiteCrawler non  in esecuzione o viene sospeso mentre si aspetta */
+    @Override
+    public CrawlerResult poll(long timeout, TimeUnit unit) throws InterruptedException {
+        except();
+        long nanos = unit.toNanos(timeout);
+        resultsLock.lockInterruptibly();
+        try {
+            while (isRunning() && index >= cResults.get().size() && nanos > 0)
+                nanos = ready.awaitNanos(nanos);
+            return isRunning() && index < cResults.get().size() ? cResults.get().get(index++) : null;
+        } finally {
+            resultsLock.unlock();
+        }
+    }
+
+    /** Ritorna il publisher dei nuovi risultati, con un buffer di {@link CrawlSettings#getResultBuffer()}
+     * risultati per subscriber. I risultati gi presenti, ad esempio quelli caricati dall'archivio, non
+     * sono passati ai subscriber.
+     * @throws IllegalStateException se il SiteCrawler  cancellato
+     * @return il publisher dei risultati */
+    @Override
+    public Flow.Publisher<CrawlerResult> results() {
+        except();
+        resultsLock.lock();
+        try {
+            if (publisher == null)
+                publisher = new SubmissionPublisher<>(ForkJoinPool.commonPool(), CrawlSettings.getResultBuffer());
+            return publisher;
+        } finally {
+            resultsLock.unlock();
+        }
+    }
+
     /** Ritorna il risultato del tentativo di scaricare la pagina che
-     * corrisponde all'URI dato.
+     * corrisponde all'URI dato, confrontato nella sua forma canonica.
      * @param uri  un URI
      * @throws IllegalArgumentException se uri non  nell'insieme degli URI
      * scaricati n nell'insieme degli URI che hanno prodotto errori.
@@ -194,6 +310,7 @@ public class SiteCrawlerObject implements SiteCrawler {
     @Override
     public CrawlerResult get(URI uri) {
         except();
+        uri = canonicalizer.canonicalize(uri);
         if ( !getLoaded().contains(uri) && !getErrors().contains(uri) ) throw new IllegalArgumentException();
         CrawlerResult crawlerResult = new CrawlerResult(null, false, null, null, new Exception("Risultato non trovato"));
         for (CrawlerResult result : cResults.get())
@@ -259,24 +376,51 @@ public class SiteCrawlerObject implements SiteCrawler {
     }
 
     /** Salva lo stato del SiteCrawler in un file Crawler_Archive.ser, cio il dominio, gli insiemi toLoad, Loaded ed errs e la lista
-     * di CrawlerResult results, solo se, per come  stato creato il SiteCrawler, pu salvare. */
+     * di CrawlerResult results, solo se, per come  stato creato il SiteCrawler, pu salvare.
+     * Gli URI da scaricare che non stanno in memoria non sono copiati nel file: restano nei segmenti della
+     * directory "frontier", da cui il Crawler li riprende, e i segmenti gi riletti sono cancellati solo dopo
+     * aver salvato il file. */
     private void saveArchive() {
         if (canArchive) {
+            CrawlerObject frontier = crawler instanceof CrawlerObject ? (CrawlerObject) crawler : null;
+            List<Path> consumed = frontier != null ? frontier.checkpoint() : Collections.emptyList();
+            boolean saved = false;
             try (OutputStream output = Files.newOutputStream(pathToArchive);
                  ObjectOutputStream obOut = new ObjectOutputStream(output) ){
                 toLoad = getToLoad();
                 loaded = getLoaded();
                 errs = getErrors();
                 List<ResultToSave> resultToSaves = new ArrayList<>();
-                cResults.get().stream().forEach(result -> resultToSaves.add(new ResultToSave(result)));
+                resultsLock.lock();
+                try {
+                    cResults.get().stream().forEach(result -> resultToSaves.add(new ResultToSave(result)));
+                } finally {
+                    resultsLock.unlock();
+                }
                 obOut.writeObject(dom);
                 obOut.writeObject(toLoad);
                 obOut.writeObject(loaded);
                 obOut.writeObject(errs);
                 obOut.writeObject(resultToSaves);
+                saved = true;
             } catch (IOException e) {
+                saved = false;
                 e.printStackTrace();
             }
+            if (saved && frontier != null) frontier.release(consumed);
+        }
+    }
+
+    /** Apre la {@link PageCache} nella directory "cache" dell'archivio e la registra per il dominio, cos
+     * i Loader leggono da l le pagine gi scaricate, anche quando l'esplorazione  ripresa dall'archivio.
+     * La dimensione e la validit sono prese da {@link CrawlSettings}, con dimensione 0 non c' cache. */
+    private void openCache() {
+        if (dom == null || CrawlSettings.getCacheSize() <= 0) return;
+        try {
+            PageCache.register(dom, new PageCache(dir.resolve("cache"), CrawlSettings.getCacheSize(),
+                    CrawlSettings.getCacheMaxAge()));
+        } catch (IOException e) {
+            e.printStackTrace();
         }
     }
 
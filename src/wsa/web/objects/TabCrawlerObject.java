@@ -79,22 +79,18 @@ public class TabCrawlerObject implements TabCrawler{
 
         if (avvia) {
             siteCrawler.get().start();
-            // prende i crawler result
+            // prende i crawler result appena sono pronti, take si sveglia anche alla sospensione
+            SiteCrawler crawler = siteCrawler.get();
             exec.submit(() -> {
-                while (siteCrawler.get().isRunning()) {
-                    Optional<CrawlerResult> davideOptional = siteCrawler.get().get();
-                    if (davideOptional.isPresent()) {
-                        CrawlerResult result = davideOptional.get();
-                        if (result.uri != null) {
+                while (crawler.isRunning()) {
+                    try {
+                        CrawlerResult result = crawler.take();
+                        if (result != null) {
                             calcolaPuntanti(result);
                             Platform.runLater(() -> listone.get().add(createPage(result)));
-                        } else {
-                            try {
-                                Thread.sleep(1000);
-                            } catch (InterruptedException e) {
-                                e.printStackTrace();
-                            }
                         }
+                    } catch (InterruptedException | IllegalStateException e) {
+                        break; // interrotto o cancellato
                     }
                 }
             });
@@ -0,0 +1,327 @@
+package wsa.web.objects;
+
+import javafx.application.Platform;
+import javafx.concurrent.Worker;
+import javafx.scene.web.WebEngine;
+import org.w3c.dom.Document;
+import wsa.web.CrawlSettings;
+import wsa.web.RenderProfile;
+import wsa.web.html.HtmlParsed;
+import wsa.web.html.Parsed;
+import wsa.web.html.ParsingTree;
+
+import java.io.StringReader;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/** Pool di {@link WebEngine} condiviso da tutti i {@link LoaderObject}. Un loader prende in prestito
+ * una WebEngine con {@link WebEnginePool#acquire()}, la usa per un download e la restituisce con
+ * {@link WebEnginePool#release(Engine)}. Le WebEngine sono create nel Thread JavaFX solo quando servono,
+ * fino al numero massimo {@link CrawlSettings#getWebEngines()}; oltre, chi le chiede aspetta il suo turno
+ * in ordine di arrivo. La fine di un download è segnalata da un {@link CompletableFuture}, senza attese
+ * a intervalli fissi.
+ * Nel Thread JavaFX si prende solo il testo della pagina scaricata; l'albero di parsing, con i link e
+ * l'indice dei tag, è costruito da un {@link HtmlParsed} in un pool di thread separato, così il Thread
+ * JavaFX resta libero per le altre WebEngine e per l'interfaccia.
+ * WebKit accumula memoria con i download, quindi una WebEngine viene ritirata e sostituita da una nuova
+ * dopo {@link CrawlSettings#getEnginePageLimit()} pagine, e tutte quelle libere sono ritirate quando la
+ * memoria ancora occupata dopo una garbage collection supera {@link CrawlSettings#getEngineHeapThreshold()}.
+ * Chi usa il pool non se ne accorge. */
+class WebEnginePool {
+
+    /** Pool che costruisce gli alberi di parsing, un thread per processore */
+    private static final ExecutorService parsers = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), r -> {
+                Thread thread = new Thread(r);
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    /** Una WebEngine del pool con il listener che completa il download in corso */
+    static class Engine {
+
+        private final WebEngine engine;
+        private CompletableFuture<Parsed> pending; // download in corso, usato solo nel Thread JavaFX
+        private Consumer<String> markup; // riceve il testo della pagina del download in corso, o null
+        private int pages; // pagine caricate, usato solo da chi ha in prestito la WebEngine
+
+        /** COSTRUTTORE, da invocare nel Thread JavaFX */
+        private Engine() {
+            engine = new WebEngine();
+            engine.getLoadWorker().stateProperty().addListener((observable, oldValue, newValue) -> {
+                if (pending == null) return;
+                if (newValue == Worker.State.SUCCEEDED) {
+                    CompletableFuture<Parsed> done = pending;
+                    pending = null;
+                    finish(done, markup);
+                } else if (newValue == Worker.State.CANCELLED || newValue == Worker.State.FAILED) {
+                    CompletableFuture<Parsed> done = pending;
+                    pending = null;
+                    done.complete(null); // la WebEngine non è riuscita a scaricare la pagina
+                }
+            });
+        }
+
+        /** Completa il download con il documento attualmente caricato nella WebEngine. Nel Thread JavaFX
+         * ne prende solo il testo, l'albero è costruito nel pool dei parser.
+         * @param done  il future del download
+         * @param markup  riceve nel pool dei parser il testo della pagina, o null */
+        private void finish(CompletableFuture<Parsed> done, Consumer<String> markup) {
+            String html = snapshot();
+            if (html != null) {
+                parsers.execute(() -> {
+                    try {
+                        if (markup != null) markup.accept(html);
+                        done.complete(HtmlParsed.parse(new StringReader(html)));
+                    } catch (Exception e) {
+                        done.completeExceptionally(e);
+                    }
+                });
+                return;
+            }
+            // senza il testo della pagina si copia il Document, nel Thread JavaFX
+            Document doc = engine.getDocument();
+            try {
+                done.complete(doc != null ? new ParsingTree(doc) : null);
+            } catch (Exception e) {
+                done.completeExceptionally(e);
+            }
+        }
+
+        /** Serializza nel Thread JavaFX il documento caricato, lo fa WebKit senza creare oggetti Java per i nodi
+         * @return il markup della pagina o null se non si può ottenere */
+        private String snapshot() {
+            try {
+                Object html = engine.executeScript("document.documentElement ? document.documentElement.outerHTML : null");
+                return html instanceof String ? (String) html : null;
+            } catch (Exception e) {
+                return null;
+            }
+        }
+
+        /** Inizia nel Thread JavaFX il download della pagina secondo il profilo di rendering. Se il download
+         * non finisce entro il tempo massimo il future è completato con una {@link TimeoutException} e il
+         * download viene interrotto.
+         * @param url  l'URL della pagina
+         * @param content  il markup della pagina già scaricato, o null per farlo scaricare alla WebEngine
+         * @param profile  il profilo di rendering
+         * @param timeout  tempo massimo in millisecondi, 0 per nessun limite
+         * @param markup  riceve il testo della pagina caricata, se si può ottenere, prima che sia analizzato; o null
+         * @return future completato con l'albero di parsing della pagina, o con null se il download è fallito */
+        CompletableFuture<Parsed> load(URL url, String content, RenderProfile profile, long timeout,
+                                       Consumer<String> markup) {
+            CompletableFuture<Parsed> done = new CompletableFuture<>();
+            Platform.runLater(() -> {
+                if (done.isDone()) return; // scaduto prima di iniziare
+                pending = done;
+                this.markup = markup;
+                engine.setJavaScriptEnabled(profile.isJavaScript());
+                if (content != null) engine.loadContent(content);
+                else engine.load(url.toString());
+            });
+            if (profile.getMaxRenderTime() > 0)
+                CompletableFuture.delayedExecutor(profile.getMaxRenderTime(), TimeUnit.MILLISECONDS)
+                        .execute(() -> Platform.runLater(() -> stop(done)));
+            if (timeout > 0)
+                done.orTimeout(timeout, TimeUnit.MILLISECONDS).whenComplete((tree, ex) -> {
+                    if (ex instanceof TimeoutException) cancel();
+                });
+            return done;
+        }
+
+        /** Allo scadere del tempo di rendering usa il documento così com'è e ferma il download,
+         * se è ancora quello in corso. Va invocato nel Thread JavaFX.
+         * @param done  il future del download */
+        private void stop(CompletableFuture<Parsed> done) {
+            if (pending != done) return; // già finito
+            pending = null;
+            finish(done, markup);
+            engine.getLoadWorker().cancel();
+        }
+
+        /** Svuota nel Thread JavaFX la WebEngine ritirata, così la memoria della pagina può essere liberata */
+        private void dispose() {
+            Platform.runLater(() -> {
+                pending = null;
+                engine.load("about:blank");
+            });
+        }
+
+        /** Interrompe nel Thread JavaFX il download in corso, senza completarne il future */
+        void cancel() {
+            Platform.runLater(() -> {
+                pending = null;
+                engine.getLoadWorker().cancel();
+            });
+        }
+    }
+
+    private static WebEnginePool shared;
+
+    /** Ritorna il pool condiviso, aggiornandone la dimensione massima con {@link CrawlSettings#getWebEngines()}
+     * e i limiti per ritirare le WebEngine con {@link CrawlSettings#getEnginePageLimit()} e
+     * {@link CrawlSettings#getEngineHeapThreshold()}
+     * @return il pool condiviso */
+    static synchronized WebEnginePool shared() {
+        if (shared == null)
+            shared = new WebEnginePool();
+        shared.pageLimit = CrawlSettings.getEnginePageLimit();
+        shared.heapThreshold = CrawlSettings.getEngineHeapThreshold();
+        shared.setCapacity(CrawlSettings.getWebEngines());
+        return shared;
+    }
+
+    private final ReentrantLock lock = new ReentrantLock(true); // fair: le WebEngine sono date in ordine di richiesta
+    private final Condition available = lock.newCondition();
+    private final ArrayDeque<Engine> idle = new ArrayDeque<>();
+    private int capacity = 1;
+    private int created = 0; // WebEngine create e non scartate, in uso o libere
+    private volatile int pageLimit; // pagine dopo cui una WebEngine è ritirata, 0 per nessun limite
+    private volatile double heapThreshold; // frazione della memoria massima oltre cui si ritirano, 0 per nessuna
+    private long lastHighCollections = -1; // garbage collection contate l'ultima volta che la memoria era alta
+
+    private WebEnginePool() {}
+
+    private void setCapacity(int capacity) {
+        lock.lock();
+        try {
+            this.capacity = capacity;
+            while (created > capacity && !idle.isEmpty()) { // le WebEngine in più sono scartate
+                idle.poll().dispose();
+                created--;
+            }
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Prende in prestito una WebEngine, creandola se il pool non è pieno, altrimenti aspetta che
+     * ne venga restituita una. Non va invocato nel Thread JavaFX.
+     * @return la WebEngine da usare per un download
+     * @throws InterruptedException se il thread è interrotto mentre aspetta */
+    Engine acquire() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (idle.isEmpty() && created >= capacity)
+                available.await();
+            if (!idle.isEmpty())
+                return idle.poll();
+            created++;
+        } finally {
+            lock.unlock();
+        }
+        try {
+            return create();
+        } catch (RuntimeException | InterruptedException e) {
+            discard();
+            throw e;
+        }
+    }
+
+    /** Restituisce una WebEngine presa con {@link WebEnginePool#acquire()}. Se ha caricato troppe pagine,
+     * o se la memoria usata è oltre la soglia, viene ritirata e il suo posto resta libero per una nuova.
+     * @param engine  la WebEngine, non deve avere download in corso */
+    void release(Engine engine) {
+        engine.pages++;
+        boolean heapHigh = isHeapHigh();
+        boolean retire = heapHigh || (pageLimit > 0 && engine.pages >= pageLimit);
+        lock.lock();
+        try {
+            if (retire || created > capacity) { // ritirata o il pool è stato ridotto nel frattempo
+                created--;
+                engine.dispose();
+            } else {
+                idle.push(engine);              // la più recente è riusata per prima
+            }
+            if (heapHigh) {                     // la memoria è alta, si ritirano anche quelle libere
+                while (!idle.isEmpty()) {
+                    idle.poll().dispose();
+                    created--;
+                }
+                available.signalAll();
+            } else {
+                available.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Guarda la memoria rimasta occupata dopo l'ultima garbage collection ({@link MemoryPoolMXBean#getCollectionUsage()}),
+     * non quella usata in questo momento che comprende anche gli oggetti non più raggiungibili: così le
+     * WebEngine non sono ritirate solo perché il GC non è ancora passato. Dopo aver risposto true non
+     * risponde di nuovo true finché non passa un'altra garbage collection, che mostri se ritirarle è servito.
+     * @return true se la memoria occupata dopo l'ultima garbage collection supera la soglia impostata */
+    private boolean isHeapHigh() {
+        double threshold = heapThreshold;
+        if (threshold <= 0) return false;
+        long collections = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            collections += Math.max(gc.getCollectionCount(), 0);
+        long used = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() != MemoryType.HEAP) continue;
+            MemoryUsage usage = pool.getCollectionUsage();
+            if (usage != null) used += usage.getUsed();
+        }
+        synchronized (this) {
+            if (collections == lastHighCollections) return false; // nessun GC dall'ultima volta
+            if (used <= threshold * Runtime.getRuntime().maxMemory()) return false;
+            lastHighCollections = collections;
+            return true;
+        }
+    }
+
+    /** Scarta una WebEngine presa con {@link WebEnginePool#acquire()} invece di restituirla, ad esempio
+     * perché un suo download non è finito in tempo. Il suo posto è libero per crearne una nuova.
+     * @param engine  la WebEngine */
+    void discard(Engine engine) {
+        engine.dispose();
+        discard();
+    }
+
+    /** Libera il posto di una WebEngine che non sarà restituita */
+    private void discard() {
+        lock.lock();
+        try {
+            created--;
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Crea una WebEngine nel Thread JavaFX aspettando che sia pronta */
+    private static Engine create() throws InterruptedException {
+        if (Platform.isFxApplicationThread())
+            return new Engine();
+        CompletableFuture<Engine> engine = new CompletableFuture<>();
+        Platform.runLater(() -> {
+            try {
+                engine.complete(new Engine());
+            } catch (Throwable t) {
+                engine.completeExceptionally(t);
+            }
+        });
+        try {
+            return engine.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
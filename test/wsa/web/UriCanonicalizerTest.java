@@ -0,0 +1,98 @@
+package wsa.web;
+
+import org.junit.Test;
+
+import java.net.URI;
+
+import static org.junit.Assert.*;
+
+/** Test di {@link UriCanonicalizer} */
+public class UriCanonicalizerTest {
+
+    private static String canon(UriCanonicalizer c, String uri) {
+        return c.canonicalize(URI.create(uri)).toString();
+    }
+
+    private static String canon(String uri) {
+        return canon(UriCanonicalizer.DEFAULT, uri);
+    }
+
+    @Test
+    public void schemeHostAndDefaultPort() {
+        assertEquals("http://host/b", canon("HTTP://Host:80/a/../b#x"));
+        assertEquals("https://host/", canon("https://HOST:443"));
+        assertEquals("http://host:8080/", canon("http://host:8080"));
+        assertEquals("https://host:80/", canon("https://host:80/"));
+        assertEquals("http://user@host/", canon("http://user@Host/"));
+    }
+
+    @Test
+    public void fragmentIsRemoved() {
+        assertEquals("http://h/a", canon("http://h/a#top"));
+        assertEquals("http://h/a?x=1", canon("http://h/a?x=1#"));
+    }
+
+    @Test
+    public void dotSegments() {
+        assertEquals("http://h/a/", canon("http://h/a/b/.."));
+        assertEquals("http://h/a/", canon("http://h/a/."));
+        assertEquals("http://h/a/c", canon("http://h/a/./b/../c"));
+        assertEquals("http://h/b", canon("http://h/../../b"));
+        assertEquals("http://h/a.b/c..d", canon("http://h/a.b/c..d"));
+    }
+
+    @Test
+    public void percentEscapes() {
+        assertEquals("http://h/~user/%2Fx%3A", canon("http://h/%7euser/%2fx%3a"));
+        assertEquals("http://h/a%20b", canon("http://h/a%20b"));
+        assertEquals("http://h/?q=a-b%26", canon("http://h/?q=a%2Db%26"));
+    }
+
+    @Test
+    public void trackingParamsAreStripped() {
+        assertEquals("http://h/?a=1", canon("http://h/?utm_source=x&a=1&UTM_Medium=y&gclid=z"));
+        assertEquals("http://h/", canon("http://h/?utm_source=x"));
+        assertEquals("http://h/?a=1&b=2", canon("http://h/?a=1&&b=2"));
+    }
+
+    @Test
+    public void sortQueryKeepsValueOrder() {
+        UriCanonicalizer sorted = UriCanonicalizer.DEFAULT.sortQuery(true);
+        assertEquals("http://h:8080/a/~user/%2Fx?a=1&a=0&b=2",
+                canon(sorted, "http://h:8080/./a/%7euser/%2fx?b=2&utm_source=z&a=1&a=0"));
+        assertEquals("http://h/?b=2&a=1", canon("http://h/?b=2&a=1"));
+    }
+
+    @Test
+    public void stripAndKeepParams() {
+        UriCanonicalizer c = UriCanonicalizer.DEFAULT.stripParams("SessionId");
+        assertTrue(c.getStrippedParams().contains("sessionid"));
+        assertEquals("http://h/?a=1", canon(c, "http://h/?sessionid=9&a=1"));
+        UriCanonicalizer keep = c.keepParams();
+        assertTrue(keep.getStrippedParams().isEmpty());
+        assertEquals("http://h/?utm_source=x&sessionid=9", canon(keep, "http://h/?utm_source=x&sessionid=9"));
+    }
+
+    @Test
+    public void optionsDoNotChangeTheOriginal() {
+        UriCanonicalizer.DEFAULT.sortQuery(true).stripParams("x");
+        assertFalse(UriCanonicalizer.DEFAULT.isSortQuery());
+        assertFalse(UriCanonicalizer.DEFAULT.getStrippedParams().contains("x"));
+    }
+
+    @Test
+    public void idempotent() {
+        UriCanonicalizer c = UriCanonicalizer.DEFAULT.sortQuery(true);
+        for (String u : new String[]{"HTTP://Host:80/a/../b?z=1&a=%7e#x", "http://h/%2f/./x", "https://h:8443/a/b/.."}) {
+            URI once = c.canonicalize(URI.create(u));
+            assertEquals(once, c.canonicalize(once));
+        }
+    }
+
+    @Test
+    public void otherUrisAreUnchanged() {
+        assertEquals("mailto:A@B.it", canon("mailto:A@B.it"));
+        assertEquals("a/../b", canon("a/../b"));
+        assertNull(UriCanonicalizer.DEFAULT.canonicalize(null));
+    }
+}
@@ -0,0 +1,140 @@
+package wsa.web.html;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/** Test di {@link HtmlTokenizer}: tag, attributi, entità, commenti, testo grezzo e markup malformato */
+public class HtmlTokenizerTest {
+
+    /** Registra i token come stringhe, gli attributi in ordine di nome */
+    private static class Recorder implements HtmlTokenizer.Handler {
+        final List<String> tokens = new ArrayList<>();
+        boolean attributes = true, text = true;
+
+        @Override
+        public void startTag(String name, Map<String, String> attr, boolean selfClosing) {
+            tokens.add("<" + name + (attr.isEmpty() ? "" : new TreeMap<>(attr)) + (selfClosing ? "/>" : ">"));
+        }
+
+        @Override
+        public void endTag(String name) {
+            tokens.add("</" + name + ">");
+        }
+
+        @Override
+        public void text(String text) {
+            tokens.add("T:" + text);
+        }
+
+        @Override
+        public void comment(String text) {
+            tokens.add("C:" + text);
+        }
+
+        @Override
+        public boolean wantsAttributes(String name) {
+            return attributes;
+        }
+
+        @Override
+        public boolean wantsText() {
+            return text;
+        }
+    }
+
+    private static List<String> tokens(String html) throws IOException {
+        return tokens(html, new Recorder());
+    }
+
+    private static List<String> tokens(String html, Recorder recorder) throws IOException {
+        new HtmlTokenizer(new StringReader(html), recorder).run();
+        return recorder.tokens;
+    }
+
+    @Test
+    public void tagsAndText() throws IOException {
+        assertEquals(Arrays.asList("<p>", "T:Ciao ", "<b>", "T:mondo", "</b>", "</p>"),
+                tokens("<P>Ciao <B>mondo</b></P>"));
+    }
+
+    @Test
+    public void attributes() throws IOException {
+        assertEquals(Arrays.asList("<a{checked=, href=x.html, id=y, title=a b}>", "</a>"),
+                tokens("<a HREF=x.html title=\"a b\" id='y' checked></a>"));
+        assertEquals(Arrays.asList("<img{src=a.png}/>"), tokens("<img src = \"a.png\" />"));
+    }
+
+    @Test
+    public void duplicateAttributesKeepTheFirst() throws IOException {
+        assertEquals(Arrays.asList("<a{href=1}>"), tokens("<a href=1 href=2>"));
+    }
+
+    @Test
+    public void entitiesAreDecoded() throws IOException {
+        assertEquals(Arrays.asList("T:a & b < c \u00e8 A A &unknown; & x"),
+                tokens("a &amp; b &lt; c &egrave; &#65; &#x41; &unknown; & x"));
+        assertEquals(Arrays.asList("<a{href=?a=1&b=2}>"), tokens("<a href=\"?a=1&amp;b=2\">"));
+    }
+
+    @Test
+    public void entityNamesAreCaseSensitive() throws IOException {
+        assertEquals(Arrays.asList("T:\u00c8 \u00e8 &Ouml; &Delta; &EGRAVE;"),
+                tokens("&Egrave; &egrave; &Ouml; &Delta; &EGRAVE;"));
+        assertEquals(Arrays.asList("T:& < > \" \u00a9 &Amp; &NBSP;"),
+                tokens("&AMP; &LT; &GT; &QUOT; &COPY; &Amp; &NBSP;"));
+        assertEquals(Arrays.asList("<a{href=/p?a=1&Ouml;=2&b=\u00c8}>"), tokens("<a href=\"/p?a=1&Ouml;=2&amp;b=&Egrave;\">"));
+    }
+
+    @Test
+    public void comments() throws IOException {
+        assertEquals(Arrays.asList("T:a", "C: <b>no</b> ", "T:c"), tokens("a<!-- <b>no</b> -->c"));
+        assertEquals(Arrays.asList("C:x->y"), tokens("<!--x->y-->"));
+    }
+
+    @Test
+    public void declarationsAreSkipped() throws IOException {
+        assertEquals(Arrays.asList("<html>"), tokens("<!DOCTYPE html><?xml version=\"1.0\"?><html>"));
+    }
+
+    @Test
+    public void rawTextIsNotParsed() throws IOException {
+        assertEquals(Arrays.asList("<script>", "T:if (a<b && c) x = '</p>';", "</script>", "<p>"),
+                tokens("<script>if (a<b && c) x = '</p>';</SCRIPT ><p>"));
+        assertEquals(Arrays.asList("<title>", "T:A & B", "</title>"), tokens("<title>A &amp; B</title>"));
+        assertEquals(Arrays.asList("<style>", "T:a{}"), tokens("<style>a{}"));
+    }
+
+    @Test
+    public void malformedMarkupBecomesText() throws IOException {
+        assertEquals(Arrays.asList("T:a < b <3 </"), tokens("a < b <3 </"));
+        assertEquals(Arrays.asList("T:a", "T:b"), tokens("a</ x>b"));
+        assertEquals(Arrays.asList("<a{href=x}>"), tokens("<a href=\"x\""));
+        assertEquals(Arrays.asList("C:aperto"), tokens("<!--aperto"));
+    }
+
+    @Test
+    public void handlerCanSkipAttributesAndText() throws IOException {
+        Recorder recorder = new Recorder();
+        recorder.attributes = false;
+        recorder.text = false;
+        assertEquals(Arrays.asList("<a>", "</a>", "<br/>", "<script>", "</script>"),
+                tokens("<a href='>'>x<!-- c --></a><br/><script>y</script>", recorder));
+    }
+
+    @Test
+    public void tokensAcrossBufferBoundaries() throws IOException {
+        StringBuilder html = new StringBuilder();
+        int n = 3000;
+        for (int i = 0; i < n; i++)
+            html.append("<a href=\"p").append(i).append("\">x</a>");
+        List<String> tokens = tokens(html.toString());
+        assertEquals(3 * n, tokens.size());
+        for (int i = 0; i < n; i++)
+            assertEquals("<a{href=p" + i + "}>", tokens.get(3 * i));
+    }
+}
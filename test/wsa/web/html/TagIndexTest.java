@@ -0,0 +1,60 @@
+package wsa.web.html;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/** Test di {@link TagIndex} e di {@link HtmlParsed#getByTag(String)} che lo usa */
+public class TagIndexTest {
+
+    @Test
+    public void lookupIgnoresCase() {
+        TagIndex index = new TagIndex();
+        Parsed.Node a = new Parsed.Node("A", Collections.emptyMap(), null);
+        index.add(a);
+        assertEquals(Collections.singletonList(a), index.get("a"));
+        assertEquals(Collections.singletonList(a), index.get("A"));
+    }
+
+    @Test
+    public void keepsInsertionOrderAndSkipsTextNodes() {
+        TagIndex index = new TagIndex();
+        Parsed.Node p1 = new Parsed.Node("P", null, null), text = new Parsed.Node(null, null, "x"),
+                p2 = new Parsed.Node("p", null, null);
+        index.add(p1);
+        index.add(text);
+        index.add(p2);
+        assertEquals(Arrays.asList(p1, p2), index.get("p"));
+    }
+
+    @Test
+    public void missingTagGivesEmptyList() {
+        assertTrue(new TagIndex().get("div").isEmpty());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void listIsNotModifiable() {
+        TagIndex index = new TagIndex();
+        index.add(new Parsed.Node("A", null, null));
+        index.get("a").clear();
+    }
+
+    @Test
+    public void getByTagMatchesTreeVisit() throws IOException {
+        HtmlParsed parsed = HtmlParsed.parse(new StringReader(
+                "<html><body><div><a href=1>x</a><p>y<a href=2>z</a></div><ul><li><a href=3></ul>"));
+        for (String tag : new String[]{"A", "P", "DIV", "LI", "BODY"}) {
+            List<Parsed.Node> visited = new ArrayList<>();
+            parsed.visit(n -> {
+                if (tag.equals(n.tag)) visited.add(n);
+            });
+            assertEquals(tag, visited, parsed.getByTag(tag));
+        }
+        assertEquals(3, parsed.getByTag("a").size());
+        assertEquals("2", parsed.getByTag("a").get(1).attr.get("href"));
+    }
+}
@@ -0,0 +1,113 @@
+package wsa.web.html;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/** Test di {@link Traversal}: ordine di visita, alberi profondi e fine dell'iterazione */
+public class TraversalTest {
+
+    /** Nodo di prova con la lista dei figli */
+    private static class TestNode extends Parsed.Node {
+        final List<TestNode> children = new ArrayList<>();
+
+        TestNode(String name) {
+            super(name, null, null);
+        }
+
+        TestNode add(TestNode... nodes) {
+            children.addAll(Arrays.asList(nodes));
+            return this;
+        }
+    }
+
+    private static List<String> tags(Iterator<Parsed.Node> it) {
+        List<String> tags = new ArrayList<>();
+        it.forEachRemaining(n -> tags.add(n.tag));
+        return tags;
+    }
+
+    @Test
+    public void preOrder() {
+        TestNode root = new TestNode("r").add(
+                new TestNode("a").add(new TestNode("a1"), new TestNode("a2").add(new TestNode("a21"))),
+                new TestNode("b"),
+                new TestNode("c").add(new TestNode("c1")));
+        assertEquals(Arrays.asList("r", "a", "a1", "a2", "a21", "b", "c", "c1"),
+                tags(new Traversal<>(root, n -> n.children)));
+    }
+
+    @Test
+    public void singleNode() {
+        assertEquals(Collections.singletonList("r"), tags(new Traversal<>(new TestNode("r"), n -> n.children)));
+    }
+
+    @Test
+    public void deepTreeDoesNotOverflowTheStack() {
+        int depth = 200_000; // ben oltre quello che regge una visita ricorsiva
+        TestNode root = new TestNode("0"), node = root;
+        for (int i = 1; i < depth; i++) {
+            TestNode child = new TestNode(Integer.toString(i));
+            node.add(child);
+            node = child;
+        }
+        node.add(new TestNode("leaf"));
+        Iterator<Parsed.Node> it = new Traversal<>(root, n -> n.children);
+        for (int i = 0; i < depth; i++)
+            assertEquals(Integer.toString(i), it.next().tag);
+        assertEquals("leaf", it.next().tag);
+        assertFalse(it.hasNext());
+    }
+
+    @Test
+    public void deepPageCanBeVisited() throws IOException {
+        int depth = 100_000;
+        StringBuilder html = new StringBuilder();
+        for (int i = 0; i < depth; i++) html.append("<div>");
+        html.append("x");
+        HtmlParsed parsed = HtmlParsed.parse(new StringReader(html.toString()));
+        int[] nodes = {0};
+        parsed.visit(n -> nodes[0]++);
+        assertEquals(depth + 2, nodes[0]); // radice, div e testo
+        assertEquals(depth, parsed.getByTag("div").size());
+    }
+
+    @Test
+    public void endOfIteration() {
+        Iterator<Parsed.Node> it = new Traversal<>(new TestNode("r").add(new TestNode("a")), n -> n.children);
+        assertTrue(it.hasNext());
+        it.next();
+        assertTrue(it.hasNext());
+        it.next();
+        assertFalse(it.hasNext());
+        assertFalse(it.hasNext());
+        try {
+            it.next();
+            fail();
+        } catch (NoSuchElementException expected) {}
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void removeIsNotSupported() {
+        Iterator<Parsed.Node> it = new Traversal<>(new TestNode("r"), n -> n.children);
+        it.next();
+        it.remove();
+    }
+
+    @Test
+    public void childrenAreOnlyAskedWhenNeeded() {
+        TestNode root = new TestNode("r").add(new TestNode("a").add(new TestNode("a1")), new TestNode("b"));
+        Set<String> expanded = new HashSet<>();
+        Iterator<Parsed.Node> it = new Traversal<>(root, n -> {
+            expanded.add(n.tag);
+            return n.children;
+        });
+        it.next();
+        it.next();
+        assertEquals(new HashSet<>(Arrays.asList("r", "a")), expanded);
+    }
+}
@@ -0,0 +1,90 @@
+package wsa.web.objects;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.*;
+
+/** Test di {@link BoundedInputStream}: limite esatto, troncamento e nessun limite */
+public class BoundedInputStreamTest {
+
+    private static BoundedInputStream bounded(int size, long limit) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) data[i] = (byte) i;
+        return new BoundedInputStream(new ByteArrayInputStream(data), limit);
+    }
+
+    @Test
+    public void streamOfExactlyTheLimitIsNotTruncated() throws IOException {
+        BoundedInputStream in = bounded(100, 100);
+        assertEquals(100, in.readAllBytes().length);
+        assertEquals(-1, in.read());
+        assertFalse(in.isTruncated());
+    }
+
+    @Test
+    public void shorterStreamIsNotTruncated() throws IOException {
+        BoundedInputStream in = bounded(10, 100);
+        assertEquals(10, in.readAllBytes().length);
+        assertFalse(in.isTruncated());
+    }
+
+    @Test
+    public void longerStreamIsTruncated() throws IOException {
+        BoundedInputStream in = bounded(101, 100);
+        byte[] read = in.readAllBytes();
+        assertEquals(100, read.length);
+        assertEquals(99, read[99]);
+        assertTrue(in.isTruncated());
+        assertEquals(-1, in.read());
+        assertTrue(in.isTruncated());
+    }
+
+    @Test
+    public void truncatedReadingByteByByte() throws IOException {
+        BoundedInputStream in = bounded(50, 10);
+        int n = 0;
+        while (in.read() != -1) n++;
+        assertEquals(10, n);
+        assertTrue(in.isTruncated());
+    }
+
+    @Test
+    public void notTruncatedBeforeReachingTheLimit() throws IOException {
+        BoundedInputStream in = bounded(1000, 100);
+        assertEquals(50, in.read(new byte[50]));
+        assertFalse(in.isTruncated());
+        assertEquals(50, in.available());
+    }
+
+    @Test
+    public void limitZeroMeansUnlimited() throws IOException {
+        BoundedInputStream in = bounded(100_000, 0);
+        assertEquals(100_000, in.readAllBytes().length);
+        assertFalse(in.isTruncated());
+    }
+
+    @Test
+    public void skipCountsTowardsTheLimit() throws IOException {
+        BoundedInputStream in = bounded(100, 30);
+        assertEquals(30, in.skip(1000));
+        assertEquals(-1, in.read());
+        assertTrue(in.isTruncated());
+    }
+
+    @Test
+    public void closeClosesTheUnderlyingStream() throws IOException {
+        boolean[] closed = {false};
+        InputStream under = new ByteArrayInputStream(new byte[10]) {
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        };
+        new BoundedInputStream(under, 5).close();
+        assertTrue(closed[0]);
+    }
+}
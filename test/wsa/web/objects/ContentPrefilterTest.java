@@ -0,0 +1,68 @@
+package wsa.web.objects;
+
+import org.junit.Test;
+import wsa.web.ContentKind;
+import wsa.web.LoadResult;
+
+import java.net.URI;
+import java.net.URL;
+
+import static org.junit.Assert.*;
+
+/** Test di {@link ContentPrefilter}: classificazione dall'estensione e dagli header */
+public class ContentPrefilterTest {
+
+    private static ContentKind ext(String uri) {
+        return ContentPrefilter.byExtension(URI.create(uri));
+    }
+
+    @Test
+    public void nonHtmlExtensions() {
+        assertEquals(ContentKind.NON_HTML, ext("http://a.test/doc.pdf"));
+        assertEquals(ContentKind.NON_HTML, ext("http://a.test/img/LOGO.PNG"));
+        assertEquals(ContentKind.NON_HTML, ext("http://a.test/a.zip?x=1"));
+        assertEquals(ContentKind.NON_HTML, ext("http://a.test/style.css#top"));
+    }
+
+    @Test
+    public void otherPathsMayBeHtml() {
+        assertEquals(ContentKind.HTML, ext("http://a.test/"));
+        assertEquals(ContentKind.HTML, ext("http://a.test"));
+        assertEquals(ContentKind.HTML, ext("http://a.test/index.html"));
+        assertEquals(ContentKind.HTML, ext("http://a.test/page.php?f=a.pdf"));
+        assertEquals(ContentKind.HTML, ext("http://a.test/v1.pdf/page"));
+        assertEquals(ContentKind.HTML, ext("http://a.test/.pdf"));
+        assertEquals(ContentKind.HTML, ext("http://a.test/a."));
+        assertEquals(ContentKind.HTML, ext("mailto:a@b.pdf"));
+    }
+
+    @Test
+    public void contentType() {
+        assertEquals(ContentKind.HTML, ContentPrefilter.byHeaders("text/html", -1, 0));
+        assertEquals(ContentKind.HTML, ContentPrefilter.byHeaders("Text/HTML; charset=UTF-8", -1, 0));
+        assertEquals(ContentKind.HTML, ContentPrefilter.byHeaders("application/xhtml+xml", -1, 0));
+        assertEquals(ContentKind.HTML, ContentPrefilter.byHeaders(null, -1, 0));
+        assertEquals(ContentKind.HTML, ContentPrefilter.byHeaders("", -1, 0));
+        assertEquals(ContentKind.NON_HTML, ContentPrefilter.byHeaders("application/pdf", -1, 0));
+        assertEquals(ContentKind.NON_HTML, ContentPrefilter.byHeaders("text/plain; charset=UTF-8", 10, 100));
+    }
+
+    @Test
+    public void contentLength() {
+        assertEquals(ContentKind.OVERSIZED, ContentPrefilter.byHeaders("text/html", 101, 100));
+        assertEquals(ContentKind.HTML, ContentPrefilter.byHeaders("text/html", 100, 100));
+        assertEquals(ContentKind.HTML, ContentPrefilter.byHeaders("text/html", -1, 100));
+        assertEquals(ContentKind.HTML, ContentPrefilter.byHeaders("text/html", Long.MAX_VALUE, 0));
+    }
+
+    @Test
+    public void skippedResult() throws Exception {
+        URL url = new URL("http://a.test/doc.pdf");
+        LoadResult result = ContentPrefilter.skipped(url, ContentKind.NON_HTML, "application/pdf");
+        assertEquals(url, result.url);
+        assertNull(result.parsed);
+        assertNull(result.exc);
+        assertEquals(ContentKind.NON_HTML, result.kind);
+        assertEquals("application/pdf", result.contentType);
+    }
+}
@@ -0,0 +1,233 @@
+package wsa.web.objects;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import wsa.web.*;
+import wsa.web.html.HtmlParsed;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/** Test della finestra di download di {@link CrawlerObject} e dei metodi take, poll e results.
+ * Le pagine sono "scaricate" da un Loader finto che non usa la rete e conta i download in corso. */
+public class CrawlerObjectTest {
+
+    private static final String SITE = "http://crawler.test/";
+
+    private final int maxInFlight = CrawlSettings.getMaxInFlight();
+    private final int loaderThreads = CrawlSettings.getLoaderThreads();
+    private final boolean prefilter = CrawlSettings.isPrefilter();
+    private final int resultBuffer = CrawlSettings.getResultBuffer();
+    private final long resultWait = CrawlSettings.getResultWait();
+
+    private final AtomicInteger inFlight = new AtomicInteger(), peak = new AtomicInteger();
+    private volatile CountDownLatch gate = new CountDownLatch(0); // i download aspettano che sia aperto
+    private volatile int pages = 0; // la pagina i ha link alle pagine 2i+1 e 2i+2 minori di pages
+    private CrawlerObject crawler;
+
+    @Before
+    public void setUp() {
+        CrawlSettings.setLoaderThreads(16); // più dei download ammessi dal crawler
+        WebFactory.setLoaderFactory(StubLoader::new);
+    }
+
+    @After
+    public void tearDown() {
+        gate.countDown();
+        if (crawler != null) crawler.cancel();
+        WebFactory.setLoaderFactory(null);
+        CrawlSettings.setMaxInFlight(maxInFlight);
+        CrawlSettings.setLoaderThreads(loaderThreads);
+        CrawlSettings.setPrefilter(prefilter);
+        CrawlSettings.setResultBuffer(resultBuffer);
+        CrawlSettings.setResultWait(resultWait);
+    }
+
+    /** Loader finto: /err fallisce con un'eccezione, /timeout ritorna un risultato con TimeoutException,
+     * /pN è una pagina HTML con i link dell'albero binario */
+    private class StubLoader implements Loader {
+        @Override
+        public LoadResult load(URL url) {
+            int now = inFlight.incrementAndGet();
+            peak.accumulateAndGet(now, Math::max);
+            try {
+                gate.await();
+                Thread.sleep(5);
+                String path = url.getPath();
+                if (path.startsWith("/err")) throw new IllegalStateException("errore del loader");
+                if (path.startsWith("/timeout")) return new LoadResult(url, null, new TimeoutException());
+                int i = Integer.parseInt(path.substring(2));
+                StringBuilder html = new StringBuilder("<html><body>");
+                for (int child = 2 * i + 1; child <= 2 * i + 2 && child < pages; child++)
+                    html.append("<a href=\"p").append(child).append("\">").append(child).append("</a>");
+                return new LoadResult(url, HtmlParsed.parse(new StringReader(html.toString())), null);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return new LoadResult(url, null, e);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+
+        @Override
+        public Exception check(URL url) {
+            return null;
+        }
+    }
+
+    private CrawlerObject crawler(String... paths) {
+        crawler = (CrawlerObject) WebFactory.getCrawler(null, null, null, u -> true);
+        for (String p : paths) crawler.add(URI.create(SITE + p));
+        return crawler;
+    }
+
+    private List<CrawlerResult> collect(int n) throws InterruptedException {
+        List<CrawlerResult> results = new ArrayList<>();
+        while (results.size() < n) {
+            CrawlerResult r = crawler.poll(5, TimeUnit.SECONDS);
+            assertNotNull("mancano risultati: " + results.size() + " di " + n, r);
+            results.add(r);
+        }
+        return results;
+    }
+
+    private void awaitIdle() throws InterruptedException {
+        long end = System.currentTimeMillis() + 5000;
+        while (crawler.getState() != CrawlerObject.State.IDLE && System.currentTimeMillis() < end)
+            Thread.sleep(5);
+        assertEquals(CrawlerObject.State.IDLE, crawler.getState());
+    }
+
+    @Test
+    public void inFlightNeverExceedsMax() throws Exception {
+        CrawlSettings.setMaxInFlight(3);
+        pages = 100;
+        gate = new CountDownLatch(1);
+        crawler("p0", "p1", "p2", "p3", "p4", "p5", "p6", "p7").start();
+        long end = System.currentTimeMillis() + 5000;
+        while (inFlight.get() < 3 && System.currentTimeMillis() < end)
+            Thread.sleep(5);
+        Thread.sleep(100);
+        assertEquals(3, inFlight.get()); // la finestra è piena e gli altri URI restano nella frontiera
+        assertEquals(CrawlerObject.State.DRAINING, crawler.getState());
+        assertEquals(5, crawler.getToLoad().size());
+        gate.countDown();
+
+        List<CrawlerResult> results = collect(pages);
+        assertTrue("download contemporanei: " + peak.get(), peak.get() <= 3);
+        assertTrue(results.stream().allMatch(r -> r.exc == null));
+        awaitIdle();
+        assertEquals(pages, crawler.getLoaded().size());
+        assertTrue(crawler.getToLoad().isEmpty());
+    }
+
+    @Test
+    public void windowDrainsAfterErrorsTimeoutsAndSkips() throws Exception {
+        CrawlSettings.setMaxInFlight(2);
+        CrawlSettings.setPrefilter(true);
+        List<String> seeds = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            seeds.add("err" + i);
+            seeds.add("timeout" + i);
+            seeds.add("doc" + i + ".pdf");
+        }
+        crawler(seeds.toArray(new String[0])).start();
+        List<CrawlerResult> results = collect(30);
+        assertEquals(20, crawler.getErrors().size());
+        assertEquals(10, results.stream().filter(r -> r.kind == ContentKind.NON_HTML).count());
+        assertTrue(peak.get() <= 2);
+        awaitIdle();
+
+        // nessun posto della finestra è rimasto occupato: altri download partono ancora
+        pages = 7;
+        crawler.add(URI.create(SITE + "p0"));
+        List<CrawlerResult> more = collect(7);
+        assertTrue(more.stream().allMatch(r -> r.exc == null && r.kind == ContentKind.HTML));
+        assertTrue(peak.get() <= 2);
+        awaitIdle();
+    }
+
+    @Test
+    public void pollTimesOut() throws Exception {
+        gate = new CountDownLatch(1);
+        crawler("p0").start();
+        long start = System.nanoTime();
+        assertNull(crawler.poll(100, TimeUnit.MILLISECONDS));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 100);
+        gate.countDown();
+        assertNotNull(crawler.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void takeReturnsNullWhenSuspended() throws Exception {
+        gate = new CountDownLatch(1);
+        crawler("p0").start();
+        ExecutorService taker = Executors.newSingleThreadExecutor();
+        try {
+            Future<CrawlerResult> taken = taker.submit(crawler::take);
+            Thread.sleep(100);
+            assertFalse(taken.isDone());
+            crawler.suspend();
+            assertNull(taken.get(5, TimeUnit.SECONDS));
+            assertNull(crawler.poll(1, TimeUnit.SECONDS)); // sospeso: ritorna subito
+        } finally {
+            taker.shutdownNow();
+        }
+    }
+
+    @Test
+    public void resultsDropsWhenSubscriberBufferIsFull() throws Exception {
+        CrawlSettings.setResultBuffer(1);
+        CrawlSettings.setResultWait(0);
+        pages = 30;
+        crawler("p0");
+        CountDownLatch blocked = new CountDownLatch(1), completed = new CountDownLatch(1);
+        AtomicInteger received = new AtomicInteger();
+        crawler.results().subscribe(new Flow.Subscriber<CrawlerResult>() {
+            private Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription s) {
+                subscription = s;
+                s.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(CrawlerResult item) {
+                received.incrementAndGet();
+                try {
+                    blocked.await(); // subscriber lento: non consuma finché il crawl non è finito
+                } catch (InterruptedException e) {
+                    subscription.cancel();
+                }
+            }
+
+            @Override
+            public void onError(Throwable throwable) {}
+
+            @Override
+            public void onComplete() {
+                completed.countDown();
+            }
+        });
+        crawler.start();
+        collect(pages); // il crawler non si è fermato ad aspettare il subscriber
+        awaitIdle();
+        assertEquals(pages, crawler.getLoaded().size());
+        blocked.countDown();
+        crawler.cancel();
+        assertTrue(completed.await(5, TimeUnit.SECONDS));
+        assertTrue("ricevuti " + received.get(), received.get() < pages);
+    }
+}
@@ -0,0 +1,214 @@
+package wsa.web.objects;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import wsa.web.FrontierScore;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/** Test di {@link Frontier}: ordine di estrazione per punteggio e, a parità, di inserimento, e la coda su disco */
+public class FrontierTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static URI uri(int i) {
+        return URI.create("http://a.test/" + i);
+    }
+
+    private static List<URI> drain(Frontier frontier) {
+        List<URI> polled = new ArrayList<>();
+        for (URI u; (u = frontier.poll()) != null; )
+            polled.add(u);
+        return polled;
+    }
+
+    @Test
+    public void equalScoresInInsertionOrder() {
+        Frontier frontier = new Frontier(FrontierScore.DEPTH);
+        List<URI> added = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            added.add(uri(i));
+            assertTrue(frontier.add(uri(i), 1));
+        }
+        assertEquals(added, drain(frontier));
+        assertTrue(frontier.isEmpty());
+        assertNull(frontier.poll());
+    }
+
+    @Test
+    public void depthOrderIsBreadthFirst() {
+        Frontier frontier = new Frontier(FrontierScore.DEPTH);
+        frontier.add(uri(3), 3);
+        frontier.add(uri(1), 1);
+        frontier.add(uri(2), 2);
+        frontier.add(uri(0));
+        frontier.add(uri(11), 1);
+        assertEquals(Arrays.asList(uri(0), uri(1), uri(11), uri(2), uri(3)), drain(frontier));
+    }
+
+    @Test
+    public void newLinksRaiseTheScore() {
+        Frontier frontier = new Frontier(FrontierScore.IN_LINKS);
+        for (int i = 0; i < 3; i++)
+            frontier.add(uri(i), 1);
+        assertFalse(frontier.add(uri(2), 1));
+        assertFalse(frontier.add(uri(2), 1));
+        assertFalse(frontier.add(uri(1), 1));
+        assertEquals(Arrays.asList(uri(2), uri(1), uri(0)), drain(frontier));
+    }
+
+    @Test
+    public void shallowerLinkLowersTheDepth() {
+        Frontier frontier = new Frontier(FrontierScore.DEPTH);
+        frontier.add(uri(0), 2);
+        frontier.add(uri(1), 3);
+        frontier.add(uri(1), 1);
+        Map.Entry<URI, Integer> first = frontier.pollWithDepth();
+        assertEquals(uri(1), first.getKey());
+        assertEquals(1, (int) first.getValue());
+        assertEquals(uri(0), frontier.poll());
+    }
+
+    @Test
+    public void duplicatesAreNotAdded() {
+        Frontier frontier = new Frontier(FrontierScore.DEPTH);
+        assertTrue(frontier.add(uri(0)));
+        assertFalse(frontier.add(uri(0)));
+        assertFalse(frontier.add(uri(0), 1));
+        assertEquals(Collections.singletonList(uri(0)), drain(frontier));
+    }
+
+    @Test
+    public void urisRemovedFromTheSetAreSkipped() {
+        Frontier frontier = new Frontier(FrontierScore.DEPTH);
+        for (int i = 0; i < 3; i++)
+            frontier.add(uri(i));
+        assertTrue(frontier.asSet().remove(uri(1)));
+        assertFalse(frontier.contains(uri(1)));
+        assertEquals(Arrays.asList(uri(0), uri(2)), drain(frontier));
+    }
+
+    @Test
+    public void manyReordersKeepEveryUriOnce() {
+        Frontier frontier = new Frontier(FrontierScore.IN_LINKS);
+        Random random = new Random(1);
+        for (int i = 0; i < 10_000; i++)
+            frontier.add(uri(random.nextInt(500)), 1);
+        List<URI> polled = drain(frontier);
+        assertEquals(500, polled.size());
+        assertEquals(500, new HashSet<>(polled).size());
+    }
+
+    @Test
+    public void clear() {
+        Frontier frontier = new Frontier(FrontierScore.DEPTH);
+        frontier.add(uri(0));
+        frontier.clear();
+        assertTrue(frontier.isEmpty());
+        assertTrue(frontier.asSet().isEmpty());
+        assertNull(frontier.poll());
+    }
+
+    private static long segments(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) return 0;
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(f -> f.getFileName().toString().endsWith(".seg")).count();
+        }
+    }
+
+    @Test
+    public void spilledUrisComeBackInOrder() throws IOException {
+        Path dir = folder.getRoot().toPath().resolve("frontier");
+        Frontier frontier = new Frontier(FrontierScore.DEPTH, dir, 10);
+        List<URI> added = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            added.add(uri(i));
+            assertTrue(frontier.add(uri(i), 1));
+        }
+        assertEquals(10, frontier.asSet().size());
+        assertEquals(2990, frontier.spilled());
+        assertTrue(segments(dir) > 1);
+        assertEquals(added, drain(frontier));
+        assertTrue(frontier.isEmpty());
+        assertEquals(0, frontier.spilled());
+    }
+
+    @Test
+    public void spilledUrisAreNotDuplicated() {
+        Frontier frontier = new Frontier(FrontierScore.DEPTH, folder.getRoot().toPath(), 10);
+        for (int i = 0; i < 100; i++)
+            frontier.add(uri(i), 1);
+        for (int i = 0; i < 100; i++)
+            assertFalse(frontier.add(uri(i), 2));
+        assertEquals(90, frontier.spilled());
+        List<URI> polled = drain(frontier);
+        assertEquals(100, polled.size());
+        assertEquals(100, new HashSet<>(polled).size());
+    }
+
+    @Test
+    public void uriOnDiskIsNotWrittenAgain() {
+        Frontier frontier = new Frontier(FrontierScore.IN_LINKS, folder.getRoot().toPath(), 4);
+        for (int i = 0; i < 8; i++)
+            frontier.add(uri(i), 1); // 0-3 in memoria, 4-7 su disco
+        for (int i = 0; i < 3; i++)
+            frontier.poll();
+        assertFalse(frontier.add(uri(4), 1)); // è su disco, non vi è scritto una seconda volta
+        List<URI> polled = drain(frontier);
+        assertEquals(5, polled.size());
+        assertEquals(5, new HashSet<>(polled).size());
+    }
+
+    @Test
+    public void closedFrontierIsResumed() throws IOException {
+        Path dir = folder.getRoot().toPath();
+        Frontier frontier = new Frontier(FrontierScore.DEPTH, dir, 10);
+        for (int i = 0; i < 3000; i++)
+            frontier.add(uri(i), 1);
+        List<URI> polled = new ArrayList<>();
+        for (int i = 0; i < 1500; i++)
+            polled.add(frontier.poll());
+        List<Path> read = frontier.checkpoint();
+        Set<URI> saved = new HashSet<>(frontier.asSet()); // quello che il crawler salva nell'archivio
+        frontier.release(read);
+        long spilled = frontier.spilled();
+        frontier.close();
+
+        Frontier resumed = new Frontier(FrontierScore.DEPTH, dir, 10);
+        assertEquals(spilled, resumed.spilled());
+        for (URI u : saved)
+            resumed.add(u, 1);
+        polled.addAll(drain(resumed));
+        assertEquals(3000, polled.size());
+        assertEquals(3000, new HashSet<>(polled).size());
+    }
+
+    @Test
+    public void clearAndDiscardDeleteTheSegments() throws IOException {
+        Path dir = folder.getRoot().toPath();
+        Frontier frontier = new Frontier(FrontierScore.DEPTH, dir, 10);
+        for (int i = 0; i < 3000; i++)
+            frontier.add(uri(i), 1);
+        frontier.close();
+        assertTrue(segments(dir) > 0);
+        Frontier.discard(dir);
+        assertEquals(0, segments(dir));
+        assertEquals(0, new Frontier(FrontierScore.DEPTH, dir, 10).spilled());
+
+        frontier = new Frontier(FrontierScore.DEPTH, dir, 10);
+        for (int i = 0; i < 3000; i++)
+            frontier.add(uri(i), 1);
+        frontier.clear();
+        assertEquals(0, segments(dir));
+        assertTrue(frontier.isEmpty());
+    }
+}
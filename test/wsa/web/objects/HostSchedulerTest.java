@@ -0,0 +1,96 @@
+package wsa.web.objects;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/** Test del token bucket e della chiusura di {@link HostScheduler} */
+public class HostSchedulerTest {
+
+    private final ExecutorService pool = Executors.newFixedThreadPool(4);
+    private HostScheduler scheduler;
+
+    @After
+    public void tearDown() {
+        if (scheduler != null) scheduler.shutdown();
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void rateLimitsRequestsPerHost() throws Exception {
+        scheduler = new HostScheduler(pool, 10, 0);
+        int n = 20;
+        CountDownLatch done = new CountDownLatch(n);
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i++)
+            scheduler.submit(new URL("http://a.test/" + i), done::countDown, e -> fail());
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        // i primi 10 usano il bucket pieno, gli altri 10 arrivano a 10 al secondo
+        assertTrue("troppo veloce: " + elapsed + "ms", elapsed >= 900);
+    }
+
+    @Test
+    public void hostsHaveSeparateBuckets() throws Exception {
+        scheduler = new HostScheduler(pool, 1, 0);
+        CountDownLatch done = new CountDownLatch(3);
+        long start = System.nanoTime();
+        for (String host : new String[]{"a.test", "b.test", "c.test"})
+            scheduler.submit(new URL("http://" + host + "/"), done::countDown, e -> fail());
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 500);
+    }
+
+    @Test
+    public void limitsConcurrentDownloadsPerHost() throws Exception {
+        scheduler = new HostScheduler(pool, 0, 1);
+        AtomicInteger active = new AtomicInteger(), max = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(6);
+        for (int i = 0; i < 6; i++)
+            scheduler.submit(new URL("http://a.test/" + i), () -> {
+                max.accumulateAndGet(active.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException ignored) {}
+                active.decrementAndGet();
+                done.countDown();
+            }, e -> fail());
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, max.get());
+    }
+
+    @Test
+    public void shutdownDiscardsQueuedDownloads() throws Exception {
+        scheduler = new HostScheduler(pool, 0.01, 0); // un solo gettone, il prossimo tra 100s
+        CountDownLatch first = new CountDownLatch(1);
+        List<Exception> discarded = new CopyOnWriteArrayList<>();
+        for (int i = 0; i < 3; i++)
+            scheduler.submit(new URL("http://a.test/" + i), first::countDown, discarded::add);
+        assertTrue(first.await(5, TimeUnit.SECONDS));
+        scheduler.shutdown();
+        assertEquals(2, discarded.size());
+        for (Exception e : discarded)
+            assertTrue(e instanceof CancellationException);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void submitAfterShutdownFails() throws Exception {
+        scheduler = new HostScheduler(pool, 0, 0);
+        scheduler.shutdown();
+        scheduler.submit(new URL("http://a.test/"), () -> {}, e -> {});
+    }
+
+    @Test
+    public void rejectedDownloadsAreDiscarded() throws Exception {
+        scheduler = new HostScheduler(r -> { throw new RejectedExecutionException(); }, 0, 0);
+        CompletableFuture<Exception> discarded = new CompletableFuture<>();
+        scheduler.submit(new URL("http://a.test/"), () -> fail(), discarded::complete);
+        assertTrue(discarded.get(5, TimeUnit.SECONDS) instanceof RejectedExecutionException);
+    }
+}
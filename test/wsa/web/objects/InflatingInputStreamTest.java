@@ -0,0 +1,195 @@
+package wsa.web.objects;
+
+import org.junit.Test;
+
+import java.io.*;
+import java.net.http.HttpHeaders;
+import java.util.*;
+import java.util.zip.*;
+
+import static org.junit.Assert.*;
+
+/** Test della decompressione dei corpi delle risposte: {@link HttpLoaderObject#decode} e {@link InflatingInputStream} */
+public class InflatingInputStreamTest {
+
+    private static final byte[] TEXT;
+    static {
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < 5000; i++)
+            s.append("<p>riga ").append(i).append(" <a href=\"p").append(i % 97).append(".html\">link</a></p>\n");
+        TEXT = s.toString().getBytes();
+    }
+
+    private static HttpHeaders encoding(String encoding) {
+        return HttpHeaders.of(Collections.singletonMap("Content-Encoding", Collections.singletonList(encoding)),
+                (name, value) -> true);
+    }
+
+    private static byte[] decode(byte[] body, String encoding) throws IOException {
+        try (InputStream in = HttpLoaderObject.decode(new ByteArrayInputStream(body), encoding(encoding))) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(data);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] deflate(byte[] data, boolean nowrap) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, nowrap);
+        try (DeflaterOutputStream d = new DeflaterOutputStream(out, deflater)) {
+            d.write(data);
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] p : parts) out.write(p, 0, p.length);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void gzip() throws IOException {
+        assertArrayEquals(TEXT, decode(gzip(TEXT), "gzip"));
+        assertArrayEquals(TEXT, decode(gzip(TEXT), " X-GZIP "));
+    }
+
+    @Test
+    public void zlibDeflate() throws IOException {
+        assertArrayEquals(TEXT, decode(deflate(TEXT, false), "deflate"));
+    }
+
+    @Test
+    public void rawDeflate() throws IOException {
+        assertArrayEquals(TEXT, decode(deflate(TEXT, true), "deflate"));
+    }
+
+    @Test
+    public void identity() throws IOException {
+        assertArrayEquals(TEXT, decode(TEXT, "identity"));
+        try (InputStream in = HttpLoaderObject.decode(new ByteArrayInputStream(TEXT),
+                HttpHeaders.of(Collections.emptyMap(), (n, v) -> true))) {
+            assertArrayEquals(TEXT, in.readAllBytes());
+        }
+    }
+
+    @Test
+    public void emptyCompressedBody() throws IOException {
+        assertEquals(0, decode(new byte[0], "gzip").length);
+        assertEquals(0, decode(new byte[0], "deflate").length);
+    }
+
+    @Test
+    public void unsupportedEncodingClosesTheBody() {
+        boolean[] closed = {false};
+        InputStream body = new ByteArrayInputStream(TEXT) {
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        };
+        try {
+            HttpLoaderObject.decode(body, encoding("br"));
+            fail();
+        } catch (IOException expected) {}
+        assertTrue(closed[0]);
+    }
+
+    @Test
+    public void concatenatedGzipMembers() throws IOException {
+        byte[] a = "prima ".getBytes(), b = "seconda".getBytes();
+        assertArrayEquals(concat(a, b), decode(concat(gzip(a), gzip(b)), "gzip"));
+    }
+
+    @Test
+    public void gzipHeaderWithOptionalFields() throws IOException {
+        byte[] data = "con nome e commento".getBytes();
+        byte[] raw = deflate(data, true);
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[]{0x1f, (byte) 0x8b, 8, 4 | 8 | 16, 0, 0, 0, 0, 0, (byte) 255});
+        out.write(new byte[]{3, 0, 'x', 'y', 'z'}); // FEXTRA
+        out.write("pagina.html\0".getBytes()); // FNAME
+        out.write("commento\0".getBytes()); // FCOMMENT
+        out.write(raw);
+        for (long v : new long[]{crc.getValue(), data.length})
+            for (int i = 0; i < 4; i++) out.write((int) (v >>> (8 * i)));
+        assertArrayEquals(data, decode(out.toByteArray(), "gzip"));
+    }
+
+    @Test(expected = ZipException.class)
+    public void wrongCrcIsDetected() throws IOException {
+        byte[] body = gzip(TEXT);
+        body[body.length - 8] ^= 1;
+        decode(body, "gzip");
+    }
+
+    @Test(expected = ZipException.class)
+    public void wrongAdlerIsDetected() throws IOException {
+        byte[] body = deflate(TEXT, false);
+        body[body.length - 1] ^= 1;
+        decode(body, "deflate");
+    }
+
+    @Test(expected = EOFException.class)
+    public void truncatedBodyIsDetected() throws IOException {
+        byte[] body = gzip(TEXT);
+        decode(Arrays.copyOf(body, body.length / 2), "gzip");
+    }
+
+    @Test(expected = ZipException.class)
+    public void notGzip() throws IOException {
+        decode(TEXT, "gzip");
+    }
+
+    @Test
+    public void pooledInflaterIsReusedCorrectly() throws IOException {
+        byte[] other = "un'altra pagina".getBytes();
+        for (int i = 0; i < 20; i++) {
+            assertArrayEquals(TEXT, decode(gzip(TEXT), "gzip"));
+            assertArrayEquals(other, decode(deflate(other, i % 2 == 0), "deflate"));
+        }
+        // due stream aperti insieme nello stesso thread: il secondo non usa l'Inflater del primo
+        try (InputStream a = HttpLoaderObject.decode(new ByteArrayInputStream(gzip(TEXT)), encoding("gzip"));
+             InputStream b = HttpLoaderObject.decode(new ByteArrayInputStream(gzip(other)), encoding("gzip"))) {
+            byte[] first = new byte[100];
+            assertEquals(100, a.readNBytes(first, 0, 100));
+            assertArrayEquals(other, b.readAllBytes());
+            assertArrayEquals(TEXT, concat(first, a.readAllBytes()));
+        }
+    }
+
+    @Test
+    public void readByteByByteAndSkip() throws IOException {
+        try (InputStream in = HttpLoaderObject.decode(new ByteArrayInputStream(gzip(TEXT)), encoding("gzip"))) {
+            assertEquals(TEXT[0], (byte) in.read());
+            assertEquals(1000, in.skip(1000));
+            assertEquals(TEXT[1001], (byte) in.read());
+            assertEquals(TEXT.length - 1002, in.readAllBytes().length);
+            assertEquals(-1, in.read());
+            assertEquals(0, in.available());
+        }
+    }
+
+    @Test
+    public void bodyArrivingInSmallChunks() throws IOException {
+        // lo stream sottostante dà pochi byte per volta, come una rete lenta
+        InputStream slow = new FilterInputStream(new ByteArrayInputStream(gzip(TEXT))) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return super.read(b, off, Math.min(len, 3));
+            }
+        };
+        try (InputStream in = HttpLoaderObject.decode(slow, encoding("gzip"))) {
+            assertArrayEquals(TEXT, in.readAllBytes());
+        }
+    }
+}
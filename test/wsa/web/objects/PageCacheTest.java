@@ -0,0 +1,182 @@
+package wsa.web.objects;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/** Test di {@link PageCache}: salvataggio, eliminazione delle pagine meno usate, riapertura e validità */
+public class PageCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final Map<String, String> HEADERS = Collections.singletonMap("content-type", "text/html; charset=UTF-8");
+
+    /** @return byte casuali, che gzip non riesce a comprimere, così ogni pagina occupa circa n byte */
+    private static byte[] body(int n, long seed) {
+        byte[] b = new byte[n];
+        new Random(seed).nextBytes(b);
+        return b;
+    }
+
+    private static byte[] read(PageCache.Entry entry) throws IOException {
+        try (InputStream in = entry.body()) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static URI uri(String page) {
+        return URI.create("http://a.test/" + page);
+    }
+
+    @Test
+    public void putThenGet() throws IOException {
+        PageCache cache = new PageCache(folder.getRoot().toPath(), 1 << 20, 60_000);
+        byte[] body = body(5000, 1);
+        cache.put(uri("a"), HEADERS, body);
+        PageCache.Entry entry = cache.get(uri("a"));
+        assertNotNull(entry);
+        assertEquals(uri("a"), entry.uri);
+        assertEquals(HEADERS, entry.headers);
+        assertArrayEquals(body, read(entry));
+        assertNull(cache.get(uri("b")));
+    }
+
+    @Test
+    public void fragmentIsIgnored() throws IOException {
+        PageCache cache = new PageCache(folder.getRoot().toPath(), 1 << 20, 60_000);
+        cache.put(uri("a#x"), HEADERS, body(10, 1));
+        assertNotNull(cache.get(uri("a#y")));
+        assertNotNull(cache.get(uri("a")));
+    }
+
+    @Test
+    public void putReplacesThePage() throws IOException {
+        PageCache cache = new PageCache(folder.getRoot().toPath(), 1 << 20, 60_000);
+        cache.put(uri("a"), HEADERS, body(1000, 1));
+        long size = cache.size();
+        byte[] body = body(1000, 2);
+        cache.put(uri("a"), HEADERS, body);
+        assertArrayEquals(body, read(cache.get(uri("a"))));
+        assertEquals(size, cache.size(), 16);
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws IOException {
+        Path dir = folder.getRoot().toPath();
+        PageCache probe = new PageCache(folder.newFolder().toPath(), 1 << 20, 60_000);
+        probe.put(uri("x"), HEADERS, body(1000, 0));
+        long page = probe.size();
+
+        PageCache cache = new PageCache(dir, 3 * page + page / 2, 60_000);
+        cache.put(uri("a"), HEADERS, body(1000, 1));
+        cache.put(uri("b"), HEADERS, body(1000, 2));
+        cache.put(uri("c"), HEADERS, body(1000, 3));
+        assertNotNull(cache.get(uri("a"))); // ora b è la meno usata
+        cache.put(uri("d"), HEADERS, body(1000, 4));
+        assertNull(cache.get(uri("b")));
+        assertNotNull(cache.get(uri("a")));
+        assertNotNull(cache.get(uri("c")));
+        assertNotNull(cache.get(uri("d")));
+        assertTrue(cache.size() <= 3 * page + page / 2);
+    }
+
+    @Test
+    public void pageLargerThanTheCacheIsNotKept() throws IOException {
+        PageCache cache = new PageCache(folder.getRoot().toPath(), 500, 60_000);
+        cache.put(uri("a"), HEADERS, body(1000, 1));
+        assertNull(cache.get(uri("a")));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void remove() throws IOException {
+        PageCache cache = new PageCache(folder.getRoot().toPath(), 1 << 20, 60_000);
+        cache.put(uri("a"), HEADERS, body(100, 1));
+        cache.remove(uri("a"));
+        assertNull(cache.get(uri("a")));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void reopenedCacheFindsThePages() throws IOException {
+        Path dir = folder.getRoot().toPath();
+        PageCache cache = new PageCache(dir, 1 << 20, 60_000);
+        byte[] body = body(2000, 1);
+        cache.put(uri("a"), HEADERS, body);
+        cache.put(uri("b"), HEADERS, body(2000, 2));
+        PageCache reopened = new PageCache(dir, 1 << 20, 60_000);
+        assertEquals(cache.size(), reopened.size());
+        assertArrayEquals(body, read(reopened.get(uri("a"))));
+    }
+
+    @Test
+    public void maxAgeZeroIsNeverFresh() throws IOException {
+        PageCache cache = new PageCache(folder.getRoot().toPath(), 1 << 20, 0);
+        cache.put(uri("a"), HEADERS, body(10, 1));
+        assertFalse(cache.get(uri("a")).isFresh());
+    }
+
+    @Test
+    public void freshUntilMaxAge() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        new PageCache(dir, 1 << 20, 60_000).put(uri("a"), HEADERS, body(10, 1));
+        assertTrue(new PageCache(dir, 1 << 20, 60_000).get(uri("a")).isFresh());
+        assertTrue(new PageCache(dir, 1 << 20, Long.MAX_VALUE).get(uri("a")).isFresh());
+        Thread.sleep(60);
+        assertFalse(new PageCache(dir, 1 << 20, 50).get(uri("a")).isFresh());
+    }
+
+    @Test
+    public void revalidateKeepsTheBodyAndUpdatesHeaders() throws Exception {
+        PageCache cache = new PageCache(folder.getRoot().toPath(), 1 << 20, 50);
+        byte[] body = body(3000, 1);
+        Map<String, String> headers = new HashMap<>(HEADERS);
+        headers.put("etag", "\"v1\"");
+        cache.put(uri("a"), headers, body);
+        Thread.sleep(60);
+        PageCache.Entry stale = cache.get(uri("a"));
+        assertFalse(stale.isFresh());
+        cache.revalidate(stale, Collections.singletonMap("etag", "\"v2\""));
+        PageCache.Entry entry = cache.get(uri("a"));
+        assertTrue(entry.isFresh());
+        assertTrue(entry.stored > stale.stored);
+        assertEquals("\"v2\"", entry.headers.get("etag"));
+        assertEquals(HEADERS.get("content-type"), entry.headers.get("content-type"));
+        assertArrayEquals(body, read(entry));
+    }
+
+    @Test
+    public void conditionalHeaders() throws IOException {
+        PageCache cache = new PageCache(folder.getRoot().toPath(), 1 << 20, 0);
+        String modified = "Wed, 21 Oct 2015 07:28:00 GMT";
+        Map<String, String> headers = new HashMap<>();
+        headers.put("etag", "\"v1\"");
+        headers.put("last-modified", modified);
+        cache.put(uri("a"), headers, body(10, 1));
+        Map<String, String> conditional = cache.get(uri("a")).conditionalHeaders();
+        assertEquals("\"v1\"", conditional.get("If-None-Match"));
+        assertEquals(modified, conditional.get("If-Modified-Since"));
+
+        cache.put(uri("b"), Collections.singletonMap("etag", "\"v1\""), body(10, 1));
+        assertFalse(cache.get(uri("b")).conditionalHeaders().containsKey("If-Modified-Since"));
+
+        cache.put(uri("c"), HEADERS, body(10, 1)); // senza validatori si usa il momento del salvataggio
+        conditional = cache.get(uri("c")).conditionalHeaders();
+        assertNull(conditional.get("If-None-Match"));
+        assertNotNull(conditional.get("If-Modified-Since"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidSize() throws IOException {
+        new PageCache(folder.getRoot().toPath(), 0, 60_000);
+    }
+}
@@ -0,0 +1,132 @@
+package wsa.web.objects;
+
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/** Test di {@link SeenSet}: tabella esatta, collisioni, crescita e filtro di Bloom */
+public class SeenSetTest {
+
+    private static URI uri(int i) {
+        return URI.create("http://a.test/p" + i);
+    }
+
+    @Test
+    public void addAndContains() {
+        SeenSet set = new SeenSet();
+        assertFalse(set.contains(uri(0)));
+        assertTrue(set.add(uri(0)));
+        assertFalse(set.add(uri(0)));
+        assertTrue(set.contains(uri(0)));
+        assertFalse(set.contains(uri(1)));
+        assertEquals(1, set.size());
+    }
+
+    @Test
+    public void equivalentFormsHaveTheSameFingerprint() {
+        SeenSet set = new SeenSet();
+        set.add(URI.create("http://a.test/x/../p"));
+        assertTrue(set.contains(URI.create("HTTP://A.Test/p")));
+        assertFalse(set.contains(URI.create("http://a.test/P")));
+    }
+
+    @Test
+    public void growsKeepingEveryUri() {
+        SeenSet set = new SeenSet();
+        int n = 100_000; // la tabella iniziale ha 1024 celle, cresce più volte
+        for (int i = 0; i < n; i++)
+            assertTrue(set.add(uri(i)));
+        assertEquals(n, set.size());
+        for (int i = 0; i < n; i++) {
+            assertTrue(set.contains(uri(i)));
+            assertFalse(set.add(uri(i)));
+        }
+        assertFalse(set.contains(uri(n)));
+    }
+
+    @Test
+    public void fingerprintsInTheSameCell() {
+        // URI diversi le cui impronte cadono nella stessa cella della tabella iniziale
+        Map<Long, URI> byCell = new HashMap<>();
+        URI a = null, b = null;
+        for (int i = 0; a == null; i++) {
+            URI u = uri(i);
+            URI other = byCell.putIfAbsent(SeenSet.fingerprint(u) & 1023, u);
+            if (other != null) {
+                a = other;
+                b = u;
+            }
+        }
+        assertNotEquals(SeenSet.fingerprint(a), SeenSet.fingerprint(b));
+        SeenSet set = new SeenSet();
+        assertTrue(set.add(a));
+        assertFalse(set.contains(b));
+        assertTrue(set.add(b));
+        assertTrue(set.contains(a));
+        assertTrue(set.contains(b));
+        assertEquals(2, set.size());
+    }
+
+    @Test
+    public void fingerprintIsNeverZero() {
+        for (int i = 0; i < 10_000; i++)
+            assertNotEquals(0, SeenSet.fingerprint(uri(i)));
+    }
+
+    @Test
+    public void clear() {
+        SeenSet set = new SeenSet();
+        for (int i = 0; i < 5000; i++)
+            set.add(uri(i));
+        set.clear();
+        assertEquals(0, set.size());
+        assertFalse(set.contains(uri(0)));
+        assertTrue(set.add(uri(0)));
+    }
+
+    @Test
+    public void bloomHasNoFalseNegatives() {
+        SeenSet set = SeenSet.bloom(10_000, 0.01);
+        for (int i = 0; i < 10_000; i++)
+            set.add(uri(i));
+        for (int i = 0; i < 10_000; i++)
+            assertTrue(set.contains(uri(i)));
+    }
+
+    @Test
+    public void bloomFalsePositiveRateMatchesItsSizing() {
+        for (double fpp : new double[]{0.01, 0.001}) {
+            int expected = 20_000, probes = 200_000;
+            SeenSet set = SeenSet.bloom(expected, fpp);
+            for (int i = 0; i < expected; i++)
+                set.add(uri(i));
+            int falsePositives = 0;
+            for (int i = expected; i < expected + probes; i++)
+                if (set.contains(uri(i))) falsePositives++;
+            double rate = (double) falsePositives / probes;
+            assertTrue("fpp " + fpp + ": " + rate, rate < 2 * fpp);
+        }
+    }
+
+    @Test
+    public void bloomClear() {
+        SeenSet set = SeenSet.bloom(100, 0.01);
+        set.add(uri(0));
+        set.clear();
+        assertFalse(set.contains(uri(0)));
+        assertEquals(0, set.size());
+    }
+
+    @Test
+    public void bloomRejectsInvalidSizing() {
+        for (double[] args : new double[][]{{0, 0.01}, {100, 0}, {100, 1}, {-1, 0.5}}) {
+            try {
+                SeenSet.bloom((long) args[0], args[1]);
+                fail(Arrays.toString(args));
+            } catch (IllegalArgumentException expected) {}
+        }
+    }
+}